@@ -1,6 +1,8 @@
 package ru.drsdgdbye.basic_authentication.config;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import org.springframework.context.support.DefaultMessageSourceResolvable;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -9,10 +11,18 @@ import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
+import ru.drsdgdbye.basic_authentication.security.exceptions.InvalidSearchQueryException;
+import ru.drsdgdbye.basic_authentication.security.exceptions.LookupTimeoutException;
+import ru.drsdgdbye.basic_authentication.security.exceptions.RoleNotFoundException;
+import ru.drsdgdbye.basic_authentication.security.exceptions.SignupNotFoundException;
+import ru.drsdgdbye.basic_authentication.security.exceptions.TooManyRequestsException;
 import ru.drsdgdbye.basic_authentication.security.exceptions.UserAlreadyExistsException;
+import ru.drsdgdbye.basic_authentication.security.exceptions.UserModifiedException;
 import ru.drsdgdbye.basic_authentication.security.exceptions.UserNotFoundException;
 import ru.drsdgdbye.basic_authentication.service.dto.SuccessDto;
 
+import javax.validation.ConstraintViolation;
+import javax.validation.ConstraintViolationException;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -28,6 +38,30 @@ public class CustomExceptionHandler extends ResponseEntityExceptionHandler {
         return ResponseEntity.badRequest().body(new SuccessDto(false, details));
     }
 
+    @ExceptionHandler(JsonProcessingException.class)
+    protected ResponseEntity<SuccessDto> handleJsonProcessingException(JsonProcessingException ex) {
+        return ResponseEntity.badRequest().body(new SuccessDto(false, List.of(ex.getOriginalMessage())));
+    }
+
+    @ExceptionHandler(ConstraintViolationException.class)
+    protected ResponseEntity<SuccessDto> handleConstraintViolationException(ConstraintViolationException ex) {
+        List<String> details = ex.getConstraintViolations()
+                .stream()
+                .map(ConstraintViolation::getMessage)
+                .collect(Collectors.toList());
+        return ResponseEntity.badRequest().body(new SuccessDto(false, details));
+    }
+
+    @ExceptionHandler(InvalidSearchQueryException.class)
+    protected ResponseEntity<SuccessDto> handleInvalidSearchQueryException(InvalidSearchQueryException ex) {
+        return ResponseEntity.badRequest().body(new SuccessDto(false, List.of(ex.getMessage())));
+    }
+
+    @ExceptionHandler(RoleNotFoundException.class)
+    protected ResponseEntity<SuccessDto> handleRoleNotFoundException(RoleNotFoundException ex) {
+        return ResponseEntity.badRequest().body(new SuccessDto(false, List.of(ex.getMessage())));
+    }
+
     @ExceptionHandler(UserAlreadyExistsException.class)
     protected ResponseEntity<UserAlreadyExistsException> handleUserAlreadyExistsException() {
         return new ResponseEntity(new UserAlreadyExistsException("User already exists").getMessage(), HttpStatus.CONFLICT);
@@ -37,4 +71,24 @@ public class CustomExceptionHandler extends ResponseEntityExceptionHandler {
     protected ResponseEntity<UserNotFoundException> handleUserNotFoundException() {
         return new ResponseEntity(new UserAlreadyExistsException("User not found").getMessage(), HttpStatus.NOT_FOUND);
     }
+
+    @ExceptionHandler(SignupNotFoundException.class)
+    protected ResponseEntity<SignupNotFoundException> handleSignupNotFoundException() {
+        return new ResponseEntity(new SignupNotFoundException("Signup not found").getMessage(), HttpStatus.NOT_FOUND);
+    }
+
+    @ExceptionHandler({UserModifiedException.class, OptimisticLockingFailureException.class})
+    protected ResponseEntity<UserModifiedException> handleUserModifiedException() {
+        return new ResponseEntity(new UserModifiedException("User was modified concurrently").getMessage(), HttpStatus.CONFLICT);
+    }
+
+    @ExceptionHandler(TooManyRequestsException.class)
+    protected ResponseEntity<TooManyRequestsException> handleTooManyRequestsException() {
+        return new ResponseEntity(new TooManyRequestsException("Too many requests").getMessage(), HttpStatus.TOO_MANY_REQUESTS);
+    }
+
+    @ExceptionHandler(LookupTimeoutException.class)
+    protected ResponseEntity<LookupTimeoutException> handleLookupTimeoutException() {
+        return new ResponseEntity(new LookupTimeoutException("Lookup timed out").getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+    }
 }
@@ -0,0 +1,69 @@
+package ru.drsdgdbye.basic_authentication.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.lang.Nullable;
+import org.springframework.util.StringUtils;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+
+/**
+ * The primary pool is configured with {@code spring.datasource.*} as usual. When
+ * {@code app.datasource.replica.jdbc-url} is set, read-only transactions run on a second pool
+ * configured with {@code app.datasource.replica.*}, otherwise they stay on the primary.
+ * The pools are injected into the routing data source, so the container closes them only after everything
+ * that uses it, the entity manager factory included.
+ */
+@Configuration
+public class DataSourceConfiguration {
+    private static final String PRIMARY = "primary";
+    private static final String REPLICA = "replica";
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        if (StringUtils.hasText(properties.getName())) {
+            dataSource.setPoolName(properties.getName());
+        } else {
+            dataSource.setPoolName(PRIMARY);
+        }
+        return dataSource;
+    }
+
+    @Bean
+    @ConditionalOnProperty("app.datasource.replica.jdbc-url")
+    @ConfigurationProperties("app.datasource.replica")
+    public HikariDataSource replicaDataSource() {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setPoolName(REPLICA);
+        dataSource.setReadOnly(true);
+        return dataSource;
+    }
+
+    /**
+     * Depends on the primary pool so that it is created first: the data source initializer of spring boot runs
+     * when a pool is initialized and needs this data source, which can then take the pool that is already built.
+     */
+    @Bean
+    @Primary
+    @DependsOn("primaryDataSource")
+    public DataSource dataSource(@Qualifier("primaryDataSource") DataSource primaryDataSource,
+                                 @Nullable @Qualifier("replicaDataSource") DataSource replicaDataSource) {
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy();
+        dataSource.setTargetDataSource(new ReadWriteRoutingDataSource(primaryDataSource, replicaDataSource != null ? replicaDataSource : primaryDataSource));
+        // hikari defaults, otherwise the proxy opens a connection to detect them while the pools are not created yet
+        dataSource.setDefaultAutoCommit(true);
+        dataSource.setDefaultTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+        return dataSource;
+    }
+}
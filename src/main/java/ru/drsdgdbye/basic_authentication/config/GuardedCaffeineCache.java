@@ -0,0 +1,78 @@
+package ru.drsdgdbye.basic_authentication.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import org.springframework.cache.caffeine.CaffeineCache;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caffeine cache that drops a value put after an eviction it may have missed.
+ * <p>
+ * {@code @Cacheable} looks the key up, runs the method and puts its result. A write that commits and evicts
+ * while the method runs would be undone by that put, the old state then stays cached until it expires.
+ * A miss remembers the eviction counter on the calling thread, the put of the same key on that thread
+ * evicts the value again if any eviction or clear happened since the miss.
+ */
+public class GuardedCaffeineCache extends CaffeineCache {
+    private final AtomicLong evictions = new AtomicLong();
+    private final ThreadLocal<Miss> misses = new ThreadLocal<>();
+
+    public GuardedCaffeineCache(String name, Cache<Object, Object> cache, boolean allowNullValues) {
+        super(name, cache, allowNullValues);
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        long stamp = evictions.get();
+        ValueWrapper value = super.get(key);
+        if (value == null) {
+            misses.set(new Miss(key, stamp));
+        }
+        return value;
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        Miss miss = misses.get();
+        misses.remove();
+        super.put(key, value);
+        if (miss != null && Objects.equals(miss.key, key) && evictions.get() != miss.stamp) {
+            super.evict(key);
+        }
+    }
+
+    @Override
+    public void evict(Object key) {
+        evictions.incrementAndGet();
+        super.evict(key);
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        evictions.incrementAndGet();
+        return super.evictIfPresent(key);
+    }
+
+    @Override
+    public void clear() {
+        evictions.incrementAndGet();
+        super.clear();
+    }
+
+    @Override
+    public boolean invalidate() {
+        evictions.incrementAndGet();
+        return super.invalidate();
+    }
+
+    private static final class Miss {
+        private final Object key;
+        private final long stamp;
+
+        private Miss(Object key, long stamp) {
+            this.key = key;
+            this.stamp = stamp;
+        }
+    }
+}
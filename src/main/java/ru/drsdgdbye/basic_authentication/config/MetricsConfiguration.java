@@ -0,0 +1,55 @@
+package ru.drsdgdbye.basic_authentication.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.autoconfigure.transaction.TransactionManagerCustomizers;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics beyond the ones spring boot binds on its own (http requests, hikari pool, hibernate statistics, caches):
+ * timings of the {@code @Timed} service methods, jdbc statements per session and transaction commit time.
+ */
+@Configuration
+public class MetricsConfiguration {
+
+    @Bean
+    public TimedMethodsAspect timedMethodsAspect(MeterRegistry meterRegistry) {
+        return new TimedMethodsAspect(meterRegistry);
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer sqlMetricsCustomizer() {
+        return properties -> properties.put(AvailableSettings.AUTO_SESSION_EVENTS_LISTENER,
+                SqlMetricsSessionListener.class.getName());
+    }
+
+    @Bean
+    public PlatformTransactionManager transactionManager(MeterRegistry meterRegistry,
+                                                         ObjectProvider<TransactionManagerCustomizers> customizers) {
+        Timer commits = Timer.builder("transaction.commit")
+                .description("time spent committing transactions")
+                .register(meterRegistry);
+        JpaTransactionManager transactionManager = new JpaTransactionManager() {
+            @Override
+            protected void doCommit(DefaultTransactionStatus status) {
+                long start = System.nanoTime();
+                try {
+                    super.doCommit(status);
+                } finally {
+                    commits.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+            }
+        };
+        customizers.ifAvailable(transactionManagerCustomizers -> transactionManagerCustomizers.customize(transactionManager));
+        return transactionManager;
+    }
+}
@@ -0,0 +1,42 @@
+package ru.drsdgdbye.basic_authentication.config;
+
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Sends connections of read-only transactions to the replica and everything else to the primary,
+ * the primary also serves reads when no replica is configured.
+ * <p>
+ * Has to be wrapped in a {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}: the
+ * transaction manager asks for the connection before the read-only flag of the transaction is exposed.
+ */
+public class ReadWriteRoutingDataSource extends AbstractDataSource {
+    private final DataSource primary;
+    private final DataSource replica;
+
+    /**
+     * @param replica the data source of read-only transactions, the primary when there is no replica.
+     */
+    public ReadWriteRoutingDataSource(DataSource primary, DataSource replica) {
+        this.primary = primary;
+        this.replica = replica;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return determineTargetDataSource().getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return determineTargetDataSource().getConnection(username, password);
+    }
+
+    private DataSource determineTargetDataSource() {
+        return TransactionSynchronizationManager.isCurrentTransactionReadOnly() ? replica : primary;
+    }
+}
@@ -0,0 +1,42 @@
+package ru.drsdgdbye.basic_authentication.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.boot.web.servlet.filter.OrderedFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.transaction.PlatformTransactionManager;
+import ru.drsdgdbye.basic_authentication.repository.UserRepository;
+import ru.drsdgdbye.basic_authentication.security.BasicAuthenticationFilter;
+import ru.drsdgdbye.basic_authentication.security.CredentialsCache;
+import ru.drsdgdbye.basic_authentication.security.PasswordHasher;
+import ru.drsdgdbye.basic_authentication.service.RoleRegistry;
+import ru.drsdgdbye.basic_authentication.service.UserService;
+
+import java.util.List;
+
+/**
+ * Registers the {@link BasicAuthenticationFilter} when {@code app.security.enabled} is set. It runs after the
+ * request metrics filter, so rejected requests are still counted.
+ */
+@Configuration
+@ConditionalOnProperty(value = "app.security.enabled", havingValue = "true")
+public class SecurityConfiguration {
+
+    @Bean
+    public FilterRegistrationBean<BasicAuthenticationFilter> basicAuthenticationFilter(
+            UserRepository userRepository, RoleRegistry roleRegistry, CredentialsCache credentialsCache,
+            PasswordHasher passwordHasher, UserService userService, PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry,
+            @Value("${app.security.realm:basic-authentication}") String realm,
+            @Value("${app.security.write-role:ADMIN}") String writeRole,
+            @Value("${app.security.public-paths:/actuator/health}") List<String> publicPaths) {
+        FilterRegistrationBean<BasicAuthenticationFilter> registration = new FilterRegistrationBean<>(
+                new BasicAuthenticationFilter(userRepository, roleRegistry, credentialsCache, passwordHasher, userService,
+                        transactionManager, meterRegistry, realm, writeRole, publicPaths));
+        registration.setOrder(OrderedFilter.REQUEST_WRAPPER_FILTER_MAX_ORDER - 100);
+        return registration;
+    }
+}
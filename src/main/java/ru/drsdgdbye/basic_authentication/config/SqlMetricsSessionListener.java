@@ -0,0 +1,56 @@
+package ru.drsdgdbye.basic_authentication.config;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.hibernate.BaseSessionEventListener;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the jdbc statements of one hibernate session and their execution time. With open session in view
+ * turned off a session spans one transaction. Hibernate creates one listener per session, so the counters are
+ * plain fields and the meters are resolved once.
+ */
+public class SqlMetricsSessionListener extends BaseSessionEventListener {
+    private static final DistributionSummary STATEMENTS = DistributionSummary.builder("sql.session.statements")
+            .description("jdbc statements executed per hibernate session")
+            .register(Metrics.globalRegistry);
+    private static final Timer TIME = Timer.builder("sql.session.time")
+            .description("time spent executing jdbc statements per hibernate session")
+            .register(Metrics.globalRegistry);
+
+    private long statements;
+    private long nanos;
+    private long start;
+
+    @Override
+    public void jdbcExecuteStatementStart() {
+        start = System.nanoTime();
+    }
+
+    @Override
+    public void jdbcExecuteStatementEnd() {
+        statements++;
+        nanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void jdbcExecuteBatchStart() {
+        start = System.nanoTime();
+    }
+
+    @Override
+    public void jdbcExecuteBatchEnd() {
+        statements++;
+        nanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void end() {
+        if (statements > 0) {
+            STATEMENTS.record(statements);
+            TIME.record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
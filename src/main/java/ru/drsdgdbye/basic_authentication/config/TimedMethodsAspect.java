@@ -0,0 +1,82 @@
+package ru.drsdgdbye.basic_authentication.config;
+
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times {@code @Timed} methods with the meters and tags of micrometer's {@code TimedAspect}, but registers
+ * the timer of a method once. {@code TimedAspect} allocates a builder, the tags and a meter id on every call
+ * to look the timer up in the registry; here a call only looks its method up in a map and records.
+ * Timers of failed calls are added once per exception type.
+ */
+@Aspect
+public class TimedMethodsAspect {
+    private static final String DEFAULT_METRIC_NAME = "method.timed";
+    private static final String NO_EXCEPTION = "none";
+
+    private final MeterRegistry meterRegistry;
+    private final Map<Method, MethodTimers> timers = new ConcurrentHashMap<>();
+
+    public TimedMethodsAspect(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Around("execution(@io.micrometer.core.annotation.Timed * *.*(..))")
+    public Object time(ProceedingJoinPoint point) throws Throwable {
+        Method method = ((MethodSignature) point.getSignature()).getMethod();
+        MethodTimers methodTimers = timers.get(method);
+        if (methodTimers == null) {
+            methodTimers = timers.computeIfAbsent(method, key -> new MethodTimers(point));
+        }
+
+        long start = System.nanoTime();
+        try {
+            Object result = point.proceed();
+            methodTimers.success.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return result;
+        } catch (Throwable ex) {
+            methodTimers.failure(ex.getClass()).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw ex;
+        }
+    }
+
+    private final class MethodTimers {
+        private final Timed timed;
+        private final String className;
+        private final String methodName;
+        private final Timer success;
+        private final Map<Class<?>, Timer> failures = new ConcurrentHashMap<>();
+
+        private MethodTimers(ProceedingJoinPoint point) {
+            Method method = ((MethodSignature) point.getSignature()).getMethod();
+            this.timed = method.getAnnotation(Timed.class);
+            this.className = point.getStaticPart().getSignature().getDeclaringTypeName();
+            this.methodName = point.getStaticPart().getSignature().getName();
+            this.success = register(NO_EXCEPTION);
+        }
+
+        private Timer failure(Class<?> exceptionType) {
+            return failures.computeIfAbsent(exceptionType, type -> register(type.getSimpleName()));
+        }
+
+        private Timer register(String exception) {
+            return Timer.builder(timed.value().isEmpty() ? DEFAULT_METRIC_NAME : timed.value())
+                    .description(timed.description().isEmpty() ? null : timed.description())
+                    .tags(timed.extraTags())
+                    .tags("class", className, "method", methodName, "exception", exception)
+                    .publishPercentileHistogram(timed.histogram())
+                    .publishPercentiles(timed.percentiles().length == 0 ? null : timed.percentiles())
+                    .register(meterRegistry);
+        }
+    }
+}
@@ -3,13 +3,17 @@ package ru.drsdgdbye.basic_authentication.domain;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import ru.drsdgdbye.basic_authentication.service.RoleListener;
 
 import javax.persistence.*;
 import javax.validation.constraints.NotNull;
-import java.util.HashSet;
-import java.util.Set;
 
+/**
+ * the association with users is mapped on {@link User} only, an inverse collection here would load
+ * every member of the role whenever a user is added to it
+ **/
 @Entity
+@EntityListeners(RoleListener.class)
 @Getter
 @Setter
 @NoArgsConstructor
@@ -21,7 +25,4 @@ public class Role {
     @NotNull
     @Column(length = 32, unique = true)
     private String name;
-
-    @ManyToMany(mappedBy = "roles")
-    private Set<User> users = new HashSet<>();
 }
@@ -3,24 +3,35 @@ package ru.drsdgdbye.basic_authentication.domain;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.hibernate.annotations.DynamicUpdate;
 
 import javax.persistence.*;
 import javax.validation.constraints.NotNull;
 import java.util.HashSet;
 import java.util.Set;
 
+/**
+ * updates only write the changed columns, edits mostly touch one of them
+ **/
 @Entity
+@DynamicUpdate
 @Getter
 @Setter
-@Table(name = "db_user")
+@Table(name = "db_user", uniqueConstraints = @UniqueConstraint(name = User.LOGIN_CONSTRAINT, columnNames = "login"))
 @NoArgsConstructor
 public class User {
+    public static final String LOGIN_CONSTRAINT = "uk_db_user_login";
+
+    /**
+     * sequence with the pooled optimizer so that inserts can be batched, identity columns disable jdbc batching
+     **/
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "db_user_seq")
+    @SequenceGenerator(name = "db_user_seq", sequenceName = "db_user_seq", allocationSize = 50)
     private Long id;
 
     @NotNull
-    @Column(length = 32, unique = true, nullable = false)
+    @Column(length = 32, nullable = false)
     private String login;
 
     @NotNull
@@ -31,6 +42,13 @@ public class User {
     @Column(length = 32, nullable = false)
     private String name;
 
+    /**
+     * incremented by every update, role changes included; it is the ETag of the user and guards edits
+     **/
+    @Version
+    @Column(nullable = false)
+    private Long version;
+
     @ManyToMany(fetch = FetchType.LAZY, cascade = {
             CascadeType.PERSIST,
             CascadeType.MERGE
@@ -44,11 +62,9 @@ public class User {
 
     public void addRole(Role role) {
         roles.add(role);
-        role.getUsers().add(this);
     }
 
     public void removeRole(Role role) {
         roles.remove(role);
-        role.getUsers().remove(this);
     }
 }
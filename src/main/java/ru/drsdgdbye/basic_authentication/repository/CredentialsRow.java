@@ -0,0 +1,8 @@
+package ru.drsdgdbye.basic_authentication.repository;
+
+/**
+ * A {@link UserRoleRow} with the stored password, only read to verify credentials.
+ */
+public interface CredentialsRow extends UserRoleRow {
+    String getPassword();
+}
@@ -1,14 +1,98 @@
 package ru.drsdgdbye.basic_authentication.repository;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.drsdgdbye.basic_authentication.domain.User;
+import ru.drsdgdbye.basic_authentication.service.dto.UserWithoutRolesDto;
+import ru.drsdgdbye.basic_authentication.utils.Constants;
 
+import javax.persistence.QueryHint;
+
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findOneByLogin(String login);
 
+    boolean existsByLogin(String login);
+
     Optional<User> findById(Long id);
+
+    /**
+     * Reads the user columns but the password and the role ids from the join table in one round-trip,
+     * without touching the role table.
+     */
+    @Query(value = "select u.id as id, u.login as login, u.name as name, u.version as version, ur.role_id as \"roleId\" " +
+            "from db_user u left join db_user_role ur on ur.user_id = u.id where u.id = :id", nativeQuery = true)
+    List<UserRoleRow> findWithRoleIdsById(@Param("id") Long id);
+
+    /**
+     * All users with their role ids, the rows of a user are adjacent. Read from a forward-only cursor
+     * {@link Constants#EXPORT_FETCH_SIZE} rows at a time, the rows are not entities and stay out of the persistence
+     * context. Password is not selected. The stream must be consumed and closed inside a transaction.
+     */
+    @QueryHints({
+            @QueryHint(name = org.hibernate.annotations.QueryHints.FETCH_SIZE, value = "" + Constants.EXPORT_FETCH_SIZE),
+            @QueryHint(name = org.hibernate.annotations.QueryHints.READ_ONLY, value = "true")
+    })
+    @Query(value = "select u.id as id, u.login as login, u.name as name, u.version as version, ur.role_id as \"roleId\" " +
+            "from db_user u left join db_user_role ur on ur.user_id = u.id order by u.id", nativeQuery = true)
+    Stream<UserRoleRow> streamAllWithRoleIds();
+
+    @Query(value = "select u.id as id, u.login as login, u.password as password, u.name as name, u.version as version, ur.role_id as \"roleId\" " +
+            "from db_user u left join db_user_role ur on ur.user_id = u.id where u.login = :login", nativeQuery = true)
+    List<CredentialsRow> findWithRoleIdsByLogin(@Param("login") String login);
+
+    @Query("select u.password from User u where u.id = :id")
+    Optional<String> findPasswordById(@Param("id") Long id);
+
+    /**
+     * Replaces the password only if it is still the one that was verified, a concurrent change wins.
+     */
+    @Modifying
+    @Query("update User u set u.password = :password, u.version = u.version + 1 where u.id = :id and u.password = :storedPassword")
+    int updatePassword(@Param("id") Long id, @Param("storedPassword") String storedPassword, @Param("password") String password);
+
+    @Query("select u.id from User u where u.id in :ids")
+    Set<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+
+    @Modifying
+    @Query(value = "delete from db_user_role where user_id in :ids", nativeQuery = true)
+    int deleteRolesByUserIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Deletes the users without loading them, the join rows have to be deleted with {@link #deleteRolesByUserIdIn(Collection)} first.
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("delete from User u where u.id in :ids")
+    int deleteByIdIn(@Param("ids") Collection<Long> ids);
+
+    @Query("select u.login from User u where u.login in :logins")
+    Set<String> findExistingLogins(@Param("logins") Collection<String> logins);
+
+    /**
+     * Reads a keyset page straight into {@link UserWithoutRolesDto}: only the three listed columns are selected
+     * and no managed entities are created.
+     */
+    @Query("select new ru.drsdgdbye.basic_authentication.service.dto.UserWithoutRolesDto(u.id, u.login, u.name, u.version) " +
+            "from User u where u.id > :after order by u.id")
+    List<UserWithoutRolesDto> findPageAfter(@Param("after") Long after, Pageable pageable);
+
+    /**
+     * Keyset page of the users whose lower-cased login or name matches the like pattern, {@code !} is the escape character.
+     * See {@code db/search-indexes.sql} for the indexes.
+     */
+    @Query("select new ru.drsdgdbye.basic_authentication.service.dto.UserWithoutRolesDto(u.id, u.login, u.name, u.version) " +
+            "from User u where (lower(u.login) like :pattern escape '!' or lower(u.name) like :pattern escape '!') " +
+            "and u.id > :after order by u.id")
+    List<UserWithoutRolesDto> searchPageAfter(@Param("pattern") String pattern, @Param("after") Long after, Pageable pageable);
 }
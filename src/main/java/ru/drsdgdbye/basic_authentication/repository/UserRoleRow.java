@@ -0,0 +1,17 @@
+package ru.drsdgdbye.basic_authentication.repository;
+
+/**
+ * One row of a user left-joined with its role ids, a user without roles has a single row with a null role id.
+ * The password is left out, see {@link CredentialsRow}.
+ */
+public interface UserRoleRow {
+    Long getId();
+
+    String getLogin();
+
+    String getName();
+
+    Long getVersion();
+
+    Long getRoleId();
+}
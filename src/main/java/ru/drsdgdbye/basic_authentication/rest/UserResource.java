@@ -1,20 +1,53 @@
 package ru.drsdgdbye.basic_authentication.rest;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
+import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.drsdgdbye.basic_authentication.security.exceptions.RoleNotFoundException;
+import ru.drsdgdbye.basic_authentication.security.exceptions.SignupNotFoundException;
+import ru.drsdgdbye.basic_authentication.security.exceptions.TooManyRequestsException;
 import ru.drsdgdbye.basic_authentication.security.exceptions.UserAlreadyExistsException;
+import ru.drsdgdbye.basic_authentication.security.exceptions.UserModifiedException;
 import ru.drsdgdbye.basic_authentication.security.exceptions.UserNotFoundException;
+import ru.drsdgdbye.basic_authentication.service.SearchMode;
+import ru.drsdgdbye.basic_authentication.service.SignupQueue;
+import ru.drsdgdbye.basic_authentication.service.UserChangeFeed;
 import ru.drsdgdbye.basic_authentication.service.UserService;
+import ru.drsdgdbye.basic_authentication.service.dto.SignupStatusDto;
 import ru.drsdgdbye.basic_authentication.service.dto.SuccessDto;
+import ru.drsdgdbye.basic_authentication.service.dto.UserDeleteResultDto;
 import ru.drsdgdbye.basic_authentication.service.dto.UserDto;
+import ru.drsdgdbye.basic_authentication.service.dto.UserExportDto;
+import ru.drsdgdbye.basic_authentication.service.dto.UserImportResultDto;
+import ru.drsdgdbye.basic_authentication.service.dto.UserListDto;
+import ru.drsdgdbye.basic_authentication.service.dto.UserPatchDto;
 import ru.drsdgdbye.basic_authentication.service.dto.UserWithoutRolesDto;
+import ru.drsdgdbye.basic_authentication.utils.Constants;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import javax.validation.groups.Default;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.Positive;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 
@@ -24,11 +57,21 @@ import java.util.Objects;
 @Log4j2
 @RestController
 public class UserResource {
+    private static final MediaType NDJSON = MediaType.parseMediaType(Constants.NDJSON_VALUE);
 
     private final UserService userService;
+    private final UserChangeFeed changeFeed;
+    private final SignupQueue signupQueue;
+    private final ObjectMapper objectMapper;
+    private final Duration exportTimeout;
 
-    public UserResource(UserService userService) {
+    public UserResource(UserService userService, UserChangeFeed changeFeed, SignupQueue signupQueue, ObjectMapper objectMapper,
+                        @Value("${app.export.timeout:2h}") Duration exportTimeout) {
         this.userService = userService;
+        this.changeFeed = changeFeed;
+        this.signupQueue = signupQueue;
+        this.objectMapper = objectMapper;
+        this.exportTimeout = exportTimeout;
     }
 
     /**
@@ -39,13 +82,13 @@ public class UserResource {
      * @param userDto the user to create.
      * @return the {@link ResponseEntity} with status {@code 201 (Created)} and with body SuccessDto,
      * or with status {@code 400 (Bad Request)} if the login is already in use or have validate exceptions.
-     * @throws UserAlreadyExistsException {@code 409 (Conflict)} if the login is already in use.
+     * @throws UserAlreadyExistsException {@code 409 (Conflict)} if the login is already in use or queued by {@code POST /add/async}.
      */
     @PostMapping("/add")
-    public ResponseEntity<SuccessDto> addUser(@Valid @RequestBody UserDto userDto) {
+    public ResponseEntity<SuccessDto> addUser(@Validated({Default.class, UserDto.New.class}) @RequestBody UserDto userDto) {
         log.debug("rest request to add user: {}", userDto);
 
-        if (userService.isUserExists(userDto) || !Objects.isNull(userDto.getId())) {
+        if (!Objects.isNull(userDto.getId()) || signupQueue.isReserved(userDto.getLogin())) {
             throw new UserAlreadyExistsException();
         }
         userService.createUser(userDto);
@@ -54,17 +97,111 @@ public class UserResource {
                 .body(new SuccessDto());
     }
 
+    /**
+     * {@code POST  /add/async}  : Queues the creation of a new user.
+     * <p>
+     * The user is validated and its login reserved right away, the insert is written later together with other
+     * queued signups in one transaction. Poll the {@code Location} for the outcome.
+     *
+     * @param userDto the user to create.
+     * @return the {@link ResponseEntity} with status {@code 202 (Accepted)} and with body the status of the signup,
+     * or with status {@code 400 (Bad Request)} if the user is invalid or any of the role ids is not a role.
+     * @throws UserAlreadyExistsException {@code 409 (Conflict)} if the login is already in use or queued.
+     * @throws TooManyRequestsException   {@code 429 (Too Many Requests)} if the queue is full.
+     * @throws RoleNotFoundException      {@code 400 (Bad Request)} if any of the role ids is not a role.
+     */
+    @PostMapping("/add/async")
+    public ResponseEntity<SignupStatusDto> addUserAsync(@Validated({Default.class, UserDto.New.class}) @RequestBody UserDto userDto) {
+        log.debug("rest request to queue user: {}", userDto);
+
+        if (!Objects.isNull(userDto.getId())) {
+            throw new UserAlreadyExistsException();
+        }
+        SignupStatusDto status = signupQueue.enqueue(userDto);
+        return ResponseEntity.accepted()
+                .location(URI.create("/add/status/" + status.getTrackingId()))
+                .body(status);
+    }
+
+    /**
+     * {@code GET  /add/status/:trackingId}  : get the outcome of a queued signup.
+     *
+     * @param trackingId the tracking id of {@code POST /add/async}.
+     * @return the {@link ResponseEntity} with status {@code 200 (OK)} and with body the status of the signup.
+     * @throws SignupNotFoundException {@code 404 (Not Found)} if the signup is unknown or its status expired.
+     */
+    @GetMapping("/add/status/{trackingId}")
+    public ResponseEntity<SignupStatusDto> getSignupStatus(@PathVariable String trackingId) {
+        log.debug("rest request to get status of signup: {}", trackingId);
+
+        return ResponseEntity.ok(signupQueue.getStatus(trackingId));
+    }
+
+    /**
+     * {@code POST  /add/batch}  : Creates new users in bulk.
+     * <p>
+     * Accepts a JSON array or a NDJSON stream of users. The body is read incrementally and imported in chunks
+     * of {@link Constants#IMPORT_CHUNK_SIZE} users, each chunk in its own transaction. A chunk that loses a login
+     * to a concurrent writer is imported once more, so that row is reported as already existing.
+     *
+     * @param body the users to create.
+     * @return the {@link ResponseEntity} with status {@code 200 (OK)} and with body the result for every user.
+     * @throws IOException if the body could not be parsed, chunks imported before the error stay committed.
+     */
+    @PostMapping(value = "/add/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, Constants.NDJSON_VALUE})
+    public ResponseEntity<List<UserImportResultDto>> addUsers(InputStream body) throws IOException {
+        log.debug("rest request to add users in bulk");
+
+        List<UserImportResultDto> report = new ArrayList<>();
+        List<UserDto> chunk = new ArrayList<>(Constants.IMPORT_CHUNK_SIZE);
+        try (MappingIterator<UserDto> users = objectMapper.readerFor(UserDto.class).readValues(body)) {
+            while (users.hasNextValue()) {
+                chunk.add(users.nextValue());
+                if (chunk.size() == Constants.IMPORT_CHUNK_SIZE) {
+                    report.addAll(importChunk(chunk, report.size()));
+                    chunk.clear();
+                }
+            }
+        }
+        if (!chunk.isEmpty()) {
+            report.addAll(importChunk(chunk, report.size()));
+        }
+        return ResponseEntity.ok(report);
+    }
+
+    /**
+     * the chunk is rolled back when a login is taken after its check, the second run checks again and reports the row
+     **/
+    private List<UserImportResultDto> importChunk(List<UserDto> chunk, int offset) {
+        try {
+            return userService.importUsers(chunk, offset);
+        } catch (UserAlreadyExistsException ex) {
+            log.debug("login of chunk at {} taken concurrently, importing it again", offset);
+            return userService.importUsers(chunk, offset);
+        }
+    }
+
     /**
      * {@code PUT /edit} : Updates an existing User.
+     * <p>
+     * The version of the user, or the ETag of {@code GET /get/:id} in {@code If-Match}, guards against lost updates.
+     * Leave the password out to keep the current one, a given password has to be verified against the stored hash.
      *
      * @param userDto the user to update.
+     * @param ifMatch the ETag the update was made against, overrides the version of the body.
      * @return the {@link ResponseEntity} with status {@code 200 (OK)} and with SuccessDto body.
      * @throws UserNotFoundException {@code 404 (Not Found)} if the User not found.
+     * @throws UserModifiedException {@code 409 (Conflict)} if the User was changed since that version.
      */
     @PutMapping("/edit")
-    public ResponseEntity<SuccessDto> editUser(@Valid @RequestBody UserDto userDto) {
+    public ResponseEntity<SuccessDto> editUser(@Valid @RequestBody UserDto userDto,
+                                               @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         log.debug("rest request to edit user: {}", userDto);
 
+        if (ifMatch != null) {
+            userDto.setVersion(versionOf(ifMatch));
+        }
+
         if (!userService.isUserExists(userDto) || Objects.isNull(userDto.getId())) {
             throw new UserNotFoundException();
         }
@@ -75,19 +212,180 @@ public class UserResource {
     }
 
     /**
-     * {@code GET /list} : get all users.
+     * {@code PATCH /edit/:id} : Partially updates an existing User.
+     * <p>
+     * Takes a JSON Merge Patch of the name, password and roles, members that are left out stay unchanged.
      *
-     * @return the {@link ResponseEntity} with status {@code 200 (OK)} and with body all users.
+     * @param id      the id of the user to update.
+     * @param patch   the fields to change.
+     * @param ifMatch the ETag the patch was made against, omit to patch any version.
+     * @return the {@link ResponseEntity} with status {@code 200 (OK)} and with SuccessDto body,
+     * or with status {@code 400 (Bad Request)} if a patched field is invalid or unknown.
+     * @throws UserNotFoundException {@code 404 (Not Found)} if the User not found.
+     * @throws UserModifiedException {@code 409 (Conflict)} if the User was changed since that version.
+     */
+    @PatchMapping(value = "/edit/{id}", consumes = {Constants.MERGE_PATCH_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<SuccessDto> patchUser(@NotEmpty @Positive @PathVariable Long id, @RequestBody UserPatchDto patch,
+                                                @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        log.debug("rest request to patch user by id: {}", id);
+
+        userService.patchUser(id, patch, ifMatch == null ? null : versionOf(ifMatch));
+        return ResponseEntity.status(HttpStatus.OK)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(new SuccessDto());
+    }
+
+    /**
+     * {@code GET /list} : get one page of users ordered by id.
+     * <p>
+     * The page is written as JSON, CBOR or Smile, following {@code Accept}. Its weak ETag changes with any user
+     * on it, a matching {@code If-None-Match} is answered with {@code 304 (Not Modified)} and no body.
+     *
+     * @param after the {@code next} cursor of the previous page, omit for the first page.
+     * @param limit the page size, capped at {@link Constants#MAX_PAGE_SIZE}.
+     * @return the {@link ResponseEntity} with status {@code 200 (OK)} and with body the page of users.
      */
     @GetMapping("/list")
-    public ResponseEntity<List<UserWithoutRolesDto>> getUsers() {
-        log.debug("rest request to get list of users without roles");
+    public ResponseEntity<UserListDto> getUsers(@RequestParam(defaultValue = "0") Long after,
+                                                @RequestParam(defaultValue = "" + Constants.DEFAULT_PAGE_SIZE) int limit) {
+        log.debug("rest request to get page of users without roles after id: {}", after);
 
-        return ResponseEntity.ok(userService.getUsersList());
+        int pageSize = Math.max(1, Math.min(limit, Constants.MAX_PAGE_SIZE));
+        UserListDto page = userService.getUsersPage(after, pageSize);
+        return ResponseEntity.ok()
+                .eTag(eTag(page))
+                .varyBy(HttpHeaders.ACCEPT)
+                .body(page);
+    }
+
+    /**
+     * {@code GET /search} : search one page of users by login or name, ignoring case.
+     *
+     * @param q     the text to search for.
+     * @param mode  {@code PREFIX} to match the start of login or name, {@code CONTAINS} to match anywhere in them.
+     * @param after the {@code next} cursor of the previous page, omit for the first page.
+     * @param limit the page size, capped at {@link Constants#MAX_PAGE_SIZE}.
+     * @return the {@link ResponseEntity} with status {@code 200 (OK)} and with body the page of users,
+     * or with status {@code 400 (Bad Request)} if the query is too short. The page has an ETag like {@code GET /list}.
+     */
+    @GetMapping("/search")
+    public ResponseEntity<UserListDto> searchUsers(@RequestParam String q,
+                                                   @RequestParam(defaultValue = "PREFIX") SearchMode mode,
+                                                   @RequestParam(defaultValue = "0") Long after,
+                                                   @RequestParam(defaultValue = "" + Constants.DEFAULT_PAGE_SIZE) int limit) {
+        log.debug("rest request to search users by: {}, after id: {}", q, after);
+
+        int pageSize = Math.max(1, Math.min(limit, Constants.MAX_PAGE_SIZE));
+        UserListDto page = userService.searchUsers(q, mode, after, pageSize);
+        return ResponseEntity.ok()
+                .eTag(eTag(page))
+                .varyBy(HttpHeaders.ACCEPT)
+                .body(page);
+    }
+
+    /**
+     * {@code GET /list/stream} : stream all users as one JSON array, or as NDJSON when {@code Accept} asks for it.
+     * <p>
+     * Users are read page by page and written to the response as they arrive,
+     * so memory use does not depend on the size of the table.
+     *
+     * @param accept the media types the client accepts.
+     * @return the {@link ResponseEntity} with status {@code 200 (OK)} and with body all users.
+     */
+    @GetMapping("/list/stream")
+    public ResponseEntity<StreamingResponseBody> streamUsers(@RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        log.debug("rest request to stream list of users without roles");
+
+        boolean lines = accept != null && MediaType.parseMediaTypes(accept).stream()
+                .anyMatch(NDJSON::equalsTypeAndSubtype);
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                if (lines) {
+                    generator.setRootValueSeparator(null);
+                } else {
+                    generator.writeStartArray();
+                }
+                Long after = 0L;
+                while (after != null) {
+                    UserListDto page = userService.getUsersPage(after, Constants.STREAM_BATCH_SIZE);
+                    for (UserWithoutRolesDto user : page.getUsers()) {
+                        generator.writeObject(user);
+                        if (lines) {
+                            generator.writeRaw('\n');
+                        }
+                    }
+                    generator.flush();
+                    after = page.getNext();
+                }
+                if (!lines) {
+                    generator.writeEndArray();
+                }
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(lines ? NDJSON : MediaType.APPLICATION_JSON)
+                .varyBy(HttpHeaders.ACCEPT)
+                .body(body);
+    }
+
+    /**
+     * {@code GET /export} : stream all users with the ids of their roles as NDJSON.
+     * <p>
+     * Users are read from a database cursor and written as they arrive, flushed every
+     * {@link Constants#STREAM_BATCH_SIZE} users. A slow client slows the cursor down instead of
+     * the users piling up in memory. The export is written asynchronously like the other streams, but it is
+     * only cut off after {@code app.export.timeout} instead of {@code spring.mvc.async.request-timeout}.
+     *
+     * @param response the response all users are written to, one per line, with status {@code 200 (OK)}.
+     * @return the task writing the users.
+     */
+    @GetMapping(value = "/export", produces = Constants.NDJSON_VALUE)
+    public WebAsyncTask<Void> exportUsers(HttpServletResponse response) {
+        log.debug("rest request to export users with roles");
+
+        response.setContentType(Constants.NDJSON_VALUE);
+        return new WebAsyncTask<>(exportTimeout.toMillis(), () -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+                generator.setRootValueSeparator(null);
+                int[] written = {0};
+                userService.exportUsers(user -> writeLine(generator, user, ++written[0] % Constants.STREAM_BATCH_SIZE == 0));
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * {@code GET /changes} : subscribe to the committed changes of users as server-sent events.
+     * <p>
+     * Every event is named after the {@link ru.drsdgdbye.basic_authentication.service.UserChangeKind}, its id is
+     * {@code <epoch>:<sequence>} of the change and its data the change as JSON. A reconnecting client resumes after the
+     * {@code Last-Event-ID} it has seen. A {@code RESET} event means the changes to resume from are gone, also after
+     * a restart of the application: reload the users and go on from the id of that event. Subscribers that fall too
+     * far behind are disconnected.
+     *
+     * @param after       the id of the last event seen, omit to receive new changes only.
+     * @param lastEventId the id of the last event seen before reconnecting, overrides {@code after}.
+     * @return the {@link SseEmitter} of the events.
+     * @throws TooManyRequestsException {@code 429 (Too Many Requests)} if there are too many subscribers.
+     */
+    @GetMapping(value = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChanges(@RequestParam(required = false) String after,
+                                    @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        log.debug("rest request to subscribe to changes after: {}", lastEventId != null ? lastEventId : after);
+
+        SseEmitter emitter = new SseEmitter();
+        changeFeed.subscribe(emitter, lastEventId != null ? lastEventId : after);
+        return emitter;
     }
 
     /**
      * {@code GET /get/:id} : get the user by id.
+     * <p>
+     * The user is written as JSON, CBOR or Smile, following {@code Accept}. Its weak ETag is the version of the user,
+     * the same for every encoding. The user comes from the cache, so a matching {@code If-None-Match}
+     * is usually answered with {@code 304 (Not Modified)} without touching the database or writing a body.
      *
      * @param id the id of the user to find.
      * @return the {@link ResponseEntity} with status {@code 200 (OK)} and with body the user, or with status {@code 404 (Not Found)}.
@@ -96,7 +394,11 @@ public class UserResource {
     public ResponseEntity<UserDto> getUser(@NotEmpty @Positive @PathVariable Long id) {
         log.debug("rest request to get user with roles by id: {}", id);
 
-        return ResponseEntity.ok(userService.getUser(id));
+        UserDto user = userService.getUser(id);
+        return ResponseEntity.ok()
+                .eTag(eTag(user.getVersion()))
+                .varyBy(HttpHeaders.ACCEPT)
+                .body(user);
     }
 
     /**
@@ -112,4 +414,68 @@ public class UserResource {
         userService.deleteUser(id);
         return ResponseEntity.noContent().build();
     }
+
+    /**
+     * {@code DELETE /delete} : delete users in bulk.
+     *
+     * @param ids the ids of the users to delete.
+     * @return the {@link ResponseEntity} with status {@code 200 (OK)} and with body the number of deleted users
+     * and the ids that were not found.
+     */
+    @DeleteMapping("/delete")
+    public ResponseEntity<UserDeleteResultDto> deleteUsers(@RequestBody List<Long> ids) {
+        log.debug("rest request to delete {} users", ids.size());
+
+        return ResponseEntity.ok(userService.deleteUsers(ids));
+    }
+
+    private static void writeLine(JsonGenerator generator, UserExportDto user, boolean flush) {
+        try {
+            generator.writeObject(user);
+            generator.writeRaw('\n');
+            if (flush) {
+                generator.flush();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * weak as the user has several encodings, the bytes of one are not the bytes of another
+     **/
+    private static String eTag(Long version) {
+        return "W/\"" + version + "\"";
+    }
+
+    /**
+     * the ids and versions of the users on the page and the cursor of the next one, weak as the page has
+     * several encodings and tomcat does not compress responses with a strong ETag
+     **/
+    private static String eTag(UserListDto page) {
+        StringBuilder versions = new StringBuilder();
+        for (UserWithoutRolesDto user : page.getUsers()) {
+            versions.append(user.getId()).append(':').append(user.getVersion()).append(',');
+        }
+        versions.append(page.getNext());
+        return "W/\"" + DigestUtils.md5DigestAsHex(versions.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+
+    /**
+     * @return the version of an ETag of a user, {@code null} for {@code *}, or {@code -1} that matches no version.
+     */
+    private static Long versionOf(String ifMatch) {
+        String eTag = ifMatch.strip();
+        if ("*".equals(eTag)) {
+            return null;
+        }
+        if (eTag.startsWith("W/")) {
+            eTag = eTag.substring(2);
+        }
+        try {
+            return Long.valueOf(eTag.substring(1, eTag.length() - 1));
+        } catch (NumberFormatException | IndexOutOfBoundsException ex) {
+            return -1L;
+        }
+    }
 }
@@ -0,0 +1,25 @@
+package ru.drsdgdbye.basic_authentication.security;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.security.Principal;
+import java.util.Set;
+
+/**
+ * A user whose credentials were verified, as kept in the {@link CredentialsCache}. Only role ids are kept,
+ * their names are resolved through the {@link ru.drsdgdbye.basic_authentication.service.RoleRegistry}
+ * so that renamed roles apply to cached users too.
+ */
+@Getter
+@AllArgsConstructor
+public class AuthenticatedUser implements Principal {
+    private final Long id;
+    private final String login;
+    private final Set<Long> roles;
+
+    @Override
+    public String getName() {
+        return login;
+    }
+}
@@ -0,0 +1,212 @@
+package ru.drsdgdbye.basic_authentication.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+import ru.drsdgdbye.basic_authentication.repository.UserRepository;
+import ru.drsdgdbye.basic_authentication.repository.CredentialsRow;
+import ru.drsdgdbye.basic_authentication.repository.UserRoleRow;
+import ru.drsdgdbye.basic_authentication.security.exceptions.TooManyRequestsException;
+import ru.drsdgdbye.basic_authentication.service.RoleRegistry;
+import ru.drsdgdbye.basic_authentication.service.UserService;
+import ru.drsdgdbye.basic_authentication.utils.LoginUtils;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.Base64;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Authenticates {@code Authorization: Basic} headers against {@code db_user}.
+ * <p>
+ * Every authenticated user may read, requests with any other method need the write role. Verified credentials
+ * are kept in the {@link CredentialsCache}, so only the first request of a user or a wrong password reaches
+ * the database. The lookup runs in a read-write transaction to stay on the primary: a lagging replica could
+ * still return a password that was just changed.
+ * <p>
+ * Passwords are verified on the {@link PasswordHasher} pool, {@code 429 (Too Many Requests)} is returned while it
+ * is saturated. A verified password that is stored as plain text or with a lower cost is rehashed on the spot.
+ */
+@Log4j2
+public class BasicAuthenticationFilter extends OncePerRequestFilter {
+    private static final String BASIC = "Basic ";
+
+    private final UserRepository userRepository;
+    private final RoleRegistry roleRegistry;
+    private final CredentialsCache credentialsCache;
+    private final PasswordHasher passwordHasher;
+    private final UserService userService;
+    private final TransactionTemplate transactionTemplate;
+    private final String realm;
+    private final String writeRole;
+    private final List<String> publicPaths;
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    private final Counter cached;
+    private final Counter verified;
+    private final Counter rejected;
+    private final Counter forbidden;
+
+    public BasicAuthenticationFilter(UserRepository userRepository, RoleRegistry roleRegistry, CredentialsCache credentialsCache,
+                                     PasswordHasher passwordHasher, UserService userService,
+                                     PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+                                     String realm, String writeRole, List<String> publicPaths) {
+        this.userRepository = userRepository;
+        this.roleRegistry = roleRegistry;
+        this.credentialsCache = credentialsCache;
+        this.passwordHasher = passwordHasher;
+        this.userService = userService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.realm = realm;
+        this.writeRole = writeRole;
+        this.publicPaths = publicPaths;
+
+        cached = meterRegistry.counter("users.auth", "result", "cached");
+        verified = meterRegistry.counter("users.auth", "result", "verified");
+        rejected = meterRegistry.counter("users.auth", "result", "rejected");
+        forbidden = meterRegistry.counter("users.auth", "result", "forbidden");
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return publicPaths.stream().anyMatch(pattern -> pathMatcher.match(pattern, path));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        AuthenticatedUser user;
+        try {
+            user = authenticate(request.getHeader(HttpHeaders.AUTHORIZATION));
+        } catch (TooManyRequestsException ex) {
+            reject(response, HttpStatus.TOO_MANY_REQUESTS, "Too many requests");
+            return;
+        }
+        if (user == null) {
+            rejected.increment();
+            response.setHeader(HttpHeaders.WWW_AUTHENTICATE, "Basic realm=\"" + realm + "\", charset=\"UTF-8\"");
+            reject(response, HttpStatus.UNAUTHORIZED, "Unauthorized");
+            return;
+        }
+
+        Set<String> roleNames = user.getRoles().stream()
+                .map(roleRegistry::getName)
+                .flatMap(Optional::stream)
+                .collect(Collectors.toSet());
+        if (!isReadMethod(request.getMethod()) && !roleNames.contains(writeRole)) {
+            forbidden.increment();
+            reject(response, HttpStatus.FORBIDDEN, "Forbidden");
+            return;
+        }
+        filterChain.doFilter(new AuthenticatedRequest(request, user, roleNames), response);
+    }
+
+    private AuthenticatedUser authenticate(String header) {
+        if (header == null || !header.regionMatches(true, 0, BASIC, 0, BASIC.length())) {
+            return null;
+        }
+        String credentials;
+        try {
+            credentials = new String(Base64.getDecoder().decode(header.substring(BASIC.length()).trim()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+        int separator = credentials.indexOf(':');
+        if (separator < 0) {
+            return null;
+        }
+        String login = LoginUtils.normalize(credentials.substring(0, separator));
+        String password = credentials.substring(separator + 1);
+
+        String key = credentialsCache.key(login, password);
+        AuthenticatedUser user = credentialsCache.get(key);
+        if (user != null) {
+            cached.increment();
+            return user;
+        }
+
+        long stamp = credentialsCache.stamp();
+        List<CredentialsRow> rows = transactionTemplate.execute(status -> userRepository.findWithRoleIdsByLogin(login));
+        if (Objects.requireNonNull(rows).isEmpty() || !passwordHasher.matches(password, rows.get(0).getPassword())) {
+            log.debug("authentication failed for login: {}", login);
+            return null;
+        }
+        if (passwordHasher.needsRehash(rows.get(0).getPassword())) {
+            rehash(rows.get(0), password);
+        }
+        user = new AuthenticatedUser(rows.get(0).getId(), login, rows.stream()
+                .map(UserRoleRow::getRoleId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toUnmodifiableSet()));
+        credentialsCache.put(key, user, stamp);
+        verified.increment();
+        return user;
+    }
+
+    private void rehash(CredentialsRow row, String password) {
+        try {
+            userService.rehashPassword(row.getId(), row.getPassword(), password);
+        } catch (TooManyRequestsException ex) {
+            log.debug("rehash of the password of user with id: {} postponed, the hasher is saturated", row.getId());
+        }
+    }
+
+    private static boolean isReadMethod(String method) {
+        return HttpMethod.GET.matches(method) || HttpMethod.HEAD.matches(method) || HttpMethod.OPTIONS.matches(method);
+    }
+
+    private static void reject(HttpServletResponse response, HttpStatus status, String message) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType("text/plain;charset=UTF-8");
+        response.getWriter().write(message);
+    }
+
+    private static class AuthenticatedRequest extends HttpServletRequestWrapper {
+        private final AuthenticatedUser user;
+        private final Set<String> roleNames;
+
+        AuthenticatedRequest(HttpServletRequest request, AuthenticatedUser user, Set<String> roleNames) {
+            super(request);
+            this.user = user;
+            this.roleNames = roleNames;
+        }
+
+        @Override
+        public String getRemoteUser() {
+            return user.getLogin();
+        }
+
+        @Override
+        public Principal getUserPrincipal() {
+            return user;
+        }
+
+        @Override
+        public boolean isUserInRole(String role) {
+            return roleNames.contains(role);
+        }
+
+        @Override
+        public String getAuthType() {
+            return BASIC_AUTH;
+        }
+    }
+}
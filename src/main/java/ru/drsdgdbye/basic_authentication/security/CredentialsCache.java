@@ -0,0 +1,129 @@
+package ru.drsdgdbye.basic_authentication.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of recently verified credentials.
+ * <p>
+ * Entries are keyed by an HMAC of {@code login:password} under a random key generated at startup, so neither
+ * the password nor a hash that could be attacked offline is kept in memory. Writes that change the password
+ * or remove a user drop the entries of that user after commit. A lookup that started before such an
+ * invalidation could still put the old credentials back, so every put is checked against an invalidation
+ * counter read before the lookup.
+ */
+@Component
+public class CredentialsCache {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final String CACHE_NAME = "credentials";
+
+    private final SecretKeySpec secret;
+    private final ThreadLocal<Mac> mac;
+    private final Cache<String, AuthenticatedUser> cache;
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public CredentialsCache(MeterRegistry meterRegistry,
+                            @Value("${app.security.credentials-cache.maximum-size:10000}") long maximumSize,
+                            @Value("${app.security.credentials-cache.expire-after-write:5m}") Duration expireAfterWrite) {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.secret = new SecretKeySpec(key, ALGORITHM);
+        this.mac = ThreadLocal.withInitial(this::newMac);
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        // same tag keys as the spring caches, prometheus rejects meters of one name with different keys
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME, "cacheManager", "credentialsCache", "name", CACHE_NAME);
+    }
+
+    /**
+     * @param login    normalized login.
+     * @param password password as sent by the client.
+     * @return the cache key of the credentials.
+     */
+    public String key(String login, String password) {
+        byte[] digest = mac.get().doFinal((login + ':' + password).getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(digest);
+    }
+
+    public AuthenticatedUser get(String key) {
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * @return the value to pass to {@link #put(String, AuthenticatedUser, long)}, read before the credentials are looked up.
+     */
+    public long stamp() {
+        return invalidations.get();
+    }
+
+    public void put(String key, AuthenticatedUser user, long stamp) {
+        cache.put(key, user);
+        if (invalidations.get() != stamp) {
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * Drops the cached credentials of the user once the current transaction commits.
+     */
+    public void invalidateAfterCommit(Long userId) {
+        invalidateAfterCommit(Set.of(userId));
+    }
+
+    /**
+     * Drops the cached credentials of the users once the current transaction commits.
+     */
+    public void invalidateAfterCommit(Set<Long> userIds) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidate(userIds);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidate(userIds);
+            }
+        });
+    }
+
+    public void invalidate(Long userId) {
+        invalidate(Set.of(userId));
+    }
+
+    /**
+     * Scans the cache once, which is cheap next to the write that caused the invalidation.
+     */
+    public void invalidate(Set<Long> userIds) {
+        invalidations.incrementAndGet();
+        cache.asMap().values().removeIf(user -> userIds.contains(user.getId()));
+    }
+
+    private Mac newMac() {
+        try {
+            Mac instance = Mac.getInstance(ALGORITHM);
+            instance.init(secret);
+            return instance;
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
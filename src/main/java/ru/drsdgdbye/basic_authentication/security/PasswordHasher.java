@@ -0,0 +1,144 @@
+package ru.drsdgdbye.basic_authentication.security;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Component;
+import ru.drsdgdbye.basic_authentication.security.exceptions.TooManyRequestsException;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+/**
+ * Hashes and verifies passwords with bcrypt on a dedicated pool of {@code app.password.threads} threads.
+ * <p>
+ * One hash takes tens of milliseconds of cpu at a production cost, so the work is kept off the request threads
+ * and the pool is bounded: when its queue is full a single hash fails with {@link TooManyRequestsException}
+ * instead of queueing up behind a signup burst. Bulk imports throttle themselves on their own pending hashes.
+ * <p>
+ * Passwords stored before hashing was introduced are compared as plain text, {@link #needsRehash(String)}
+ * reports them together with hashes of a lower cost than {@code app.password.cost}.
+ */
+@Log4j2
+@Component
+public class PasswordHasher {
+    private static final String BCRYPT_PREFIX = "$2";
+
+    private final BCryptPasswordEncoder encoder;
+    private final ThreadPoolExecutor executor;
+    private final ExecutorService monitoredExecutor;
+
+    public PasswordHasher(MeterRegistry meterRegistry,
+                          @Value("${app.password.cost:10}") int cost,
+                          @Value("${app.password.threads:0}") int threads,
+                          @Value("${app.password.queue-capacity:64}") int queueCapacity) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.encoder = new BCryptPasswordEncoder(cost);
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new ThreadFactory() {
+            private int count;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "password-hasher-" + count++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.AbortPolicy());
+        this.monitoredExecutor = ExecutorServiceMetrics.monitor(meterRegistry, executor, "password.hasher");
+        log.info("password hasher with cost {} on {} threads", cost, poolSize);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @throws TooManyRequestsException if the pool is saturated.
+     */
+    public String hash(String password) {
+        return await(submit(() -> encoder.encode(password)));
+    }
+
+    /**
+     * Hashes the passwords in parallel, waiting for its own earlier hashes instead of failing while the pool is full.
+     *
+     * @return the hashes in the order of the passwords.
+     * @throws TooManyRequestsException if the pool is saturated by other callers.
+     */
+    public List<String> hashAll(List<String> passwords) {
+        List<Future<String>> hashes = new ArrayList<>(passwords.size());
+        int completed = 0;
+        for (String password : passwords) {
+            while (true) {
+                try {
+                    hashes.add(monitoredExecutor.submit(() -> encoder.encode(password)));
+                    break;
+                } catch (RejectedExecutionException ex) {
+                    if (completed == hashes.size()) {
+                        throw new TooManyRequestsException();
+                    }
+                    await(hashes.get(completed++));
+                }
+            }
+        }
+        return hashes.stream()
+                .map(PasswordHasher::await)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @throws TooManyRequestsException if the pool is saturated.
+     */
+    public boolean matches(String password, String storedPassword) {
+        if (storedPassword == null) {
+            return false;
+        }
+        if (!isHash(storedPassword)) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), storedPassword.getBytes(StandardCharsets.UTF_8));
+        }
+        return await(submit(() -> encoder.matches(password, storedPassword)));
+    }
+
+    /**
+     * @return {@code true} if the stored password is plain text or hashed with a lower cost than the configured one.
+     */
+    public boolean needsRehash(String storedPassword) {
+        return !isHash(storedPassword) || encoder.upgradeEncoding(storedPassword);
+    }
+
+    private static boolean isHash(String storedPassword) {
+        return storedPassword.startsWith(BCRYPT_PREFIX);
+    }
+
+    private <T> Future<T> submit(Callable<T> task) {
+        try {
+            return monitoredExecutor.submit(task);
+        } catch (RejectedExecutionException ex) {
+            throw new TooManyRequestsException();
+        }
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new IllegalStateException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package ru.drsdgdbye.basic_authentication.security.exceptions;
+
+public class InvalidSearchQueryException extends RuntimeException {
+    public InvalidSearchQueryException() {
+    }
+
+    public InvalidSearchQueryException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,14 @@
+package ru.drsdgdbye.basic_authentication.security.exceptions;
+
+public class LookupFailedException extends RuntimeException {
+    public LookupFailedException() {
+    }
+
+    public LookupFailedException(String msg) {
+        super(msg);
+    }
+
+    public LookupFailedException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+}
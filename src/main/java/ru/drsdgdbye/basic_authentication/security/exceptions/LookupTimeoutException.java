@@ -0,0 +1,10 @@
+package ru.drsdgdbye.basic_authentication.security.exceptions;
+
+public class LookupTimeoutException extends RuntimeException {
+    public LookupTimeoutException() {
+    }
+
+    public LookupTimeoutException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,10 @@
+package ru.drsdgdbye.basic_authentication.security.exceptions;
+
+public class RoleNotFoundException extends RuntimeException {
+    public RoleNotFoundException() {
+    }
+
+    public RoleNotFoundException(String msg) {
+        super(msg);
+    }
+}
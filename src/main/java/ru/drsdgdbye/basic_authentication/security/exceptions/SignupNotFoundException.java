@@ -0,0 +1,10 @@
+package ru.drsdgdbye.basic_authentication.security.exceptions;
+
+public class SignupNotFoundException extends RuntimeException {
+    public SignupNotFoundException() {
+    }
+
+    public SignupNotFoundException(String msg) {
+        super(msg);
+    }
+}
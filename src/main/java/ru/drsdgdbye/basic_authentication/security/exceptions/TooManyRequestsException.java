@@ -0,0 +1,10 @@
+package ru.drsdgdbye.basic_authentication.security.exceptions;
+
+public class TooManyRequestsException extends RuntimeException {
+    public TooManyRequestsException() {
+    }
+
+    public TooManyRequestsException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,10 @@
+package ru.drsdgdbye.basic_authentication.security.exceptions;
+
+public class UserModifiedException extends RuntimeException {
+    public UserModifiedException() {
+    }
+
+    public UserModifiedException(String msg) {
+        super(msg);
+    }
+}
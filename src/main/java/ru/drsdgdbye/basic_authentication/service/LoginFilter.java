@@ -0,0 +1,214 @@
+package ru.drsdgdbye.basic_authentication.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.drsdgdbye.basic_authentication.repository.UserRepository;
+import ru.drsdgdbye.basic_authentication.service.dto.UserWithoutRolesDto;
+import ru.drsdgdbye.basic_authentication.utils.BloomFilter;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory bloom filter over the normalized logins of {@code db_user}.
+ * <p>
+ * A negative answer of {@link #mightContain(String)} is definite and lets the caller skip the database.
+ * The filter is warmed from the table at startup and fed on every created user. Bloom filters cannot
+ * forget values, so deleted logins stay in it as false positives until enough deletes trigger a rebuild.
+ * <p>
+ * The filter only sees users created through this process: a login inserted by another instance or directly
+ * in the database is answered as unused until the next rebuild, so signups of it fail on the unique constraint
+ * only and {@code /edit} of it responds 404. It is therefore off by default, enable it with
+ * {@code app.login-filter.enabled=true} only where this process is the single writer of {@code db_user}.
+ */
+@Log4j2
+@Component
+public class LoginFilter {
+    private static final int WARM_UP_PAGE_SIZE = 10_000;
+    private static final double REBUILD_DELETED_RATIO = 0.25;
+
+    private final UserRepository userRepository;
+    private final boolean enabled;
+    private final long expectedInsertions;
+    private final double fpp;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ThreadPoolExecutor rebuildExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new SynchronousQueue<>(), runnable -> {
+        Thread thread = new Thread(runnable, "login-filter-rebuild");
+        thread.setDaemon(true);
+        return thread;
+    }, new ThreadPoolExecutor.DiscardPolicy());
+
+    private volatile BloomFilter current;
+    private volatile BloomFilter building;
+    private volatile boolean ready;
+    private final AtomicLong inserted = new AtomicLong();
+    private final AtomicLong deleted = new AtomicLong();
+
+    private final Counter negatives;
+    private final Counter positives;
+    private final Counter falsePositives;
+
+    public LoginFilter(UserRepository userRepository, MeterRegistry meterRegistry,
+                       @Value("${app.login-filter.enabled:false}") boolean enabled,
+                       @Value("${app.login-filter.expected-insertions:1000000}") long expectedInsertions,
+                       @Value("${app.login-filter.fpp:0.01}") double fpp) {
+        this.userRepository = userRepository;
+        this.enabled = enabled;
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        this.current = new BloomFilter(expectedInsertions, fpp);
+
+        negatives = meterRegistry.counter("users.login.filter.checks", "result", "negative");
+        positives = meterRegistry.counter("users.login.filter.checks", "result", "positive");
+        falsePositives = meterRegistry.counter("users.login.filter.false.positives");
+        Gauge.builder("users.login.filter.memory", this, filter -> filter.current.sizeInBytes())
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("users.login.filter.expected.fpp", this, filter -> filter.current.expectedFpp())
+                .register(meterRegistry);
+        Gauge.builder("users.login.filter.false.positive.rate", this, LoginFilter::falsePositiveRate)
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (enabled) {
+            rebuildExecutor.execute(this::rebuild);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        rebuildExecutor.shutdownNow();
+    }
+
+    /**
+     * @param login normalized login.
+     * @return {@code false} if the login is definitely not used, {@code true} if the database has to be asked.
+     */
+    public boolean mightContain(String login) {
+        if (!ready) {
+            return true;
+        }
+        boolean result = current.mightContain(login);
+        (result ? positives : negatives).increment();
+        return result;
+    }
+
+    /**
+     * @return {@code true} once the filter was built from the table, until then every check goes to the database.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Records that the database did not confirm a positive answer of {@link #mightContain(String)}.
+     */
+    public void falsePositive() {
+        if (ready) {
+            falsePositives.increment();
+        }
+    }
+
+    /**
+     * Adds the login once the current transaction commits, so that a concurrent rebuild either sees
+     * the committed row or receives the login itself.
+     *
+     * @param login normalized login.
+     */
+    public void putAfterCommit(String login) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            put(login);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                put(login);
+            }
+        });
+    }
+
+    public void onDelete(long count) {
+        if (enabled && deleted.addAndGet(count) > inserted.get() * REBUILD_DELETED_RATIO) {
+            rebuildExecutor.execute(this::rebuild);
+        }
+    }
+
+    private void put(String login) {
+        lock.readLock().lock();
+        try {
+            current.put(login);
+            BloomFilter next = building;
+            if (next != null) {
+                next.put(login);
+            }
+            inserted.incrementAndGet();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void rebuild() {
+        long users = userRepository.count();
+        BloomFilter next = new BloomFilter(Math.max(expectedInsertions, users * 2), fpp);
+        lock.writeLock().lock();
+        try {
+            building = next;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        try {
+            long count = 0;
+            Long after = 0L;
+            List<UserWithoutRolesDto> page;
+            do {
+                page = userRepository.findPageAfter(after, PageRequest.of(0, WARM_UP_PAGE_SIZE));
+                for (UserWithoutRolesDto user : page) {
+                    next.put(user.getLogin());
+                    after = user.getId();
+                }
+                count += page.size();
+            } while (page.size() == WARM_UP_PAGE_SIZE);
+
+            lock.writeLock().lock();
+            try {
+                current = next;
+                inserted.set(count);
+                deleted.set(0);
+                ready = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            log.info("login filter built from {} users, {} bytes", count, next.sizeInBytes());
+        } catch (RuntimeException ex) {
+            log.warn("login filter rebuild failed", ex);
+        } finally {
+            building = null;
+        }
+    }
+
+    private double falsePositiveRate() {
+        double negativeLookups = negatives.count() + falsePositives.count();
+        return negativeLookups == 0 ? 0 : falsePositives.count() / negativeLookups;
+    }
+}
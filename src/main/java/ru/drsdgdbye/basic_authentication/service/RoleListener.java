@@ -0,0 +1,59 @@
+package ru.drsdgdbye.basic_authentication.service;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.drsdgdbye.basic_authentication.domain.Role;
+import ru.drsdgdbye.basic_authentication.utils.Constants;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+/**
+ * Drops the {@link RoleRegistry} snapshot after a transaction that wrote a {@link Role} commits.
+ * A removed role also clears the cached users, as their role ids may have changed.
+ */
+@Component
+public class RoleListener {
+    private final RoleRegistry roleRegistry;
+    private final CacheManager cacheManager;
+
+    public RoleListener(@Lazy RoleRegistry roleRegistry, @Lazy CacheManager cacheManager) {
+        this.roleRegistry = roleRegistry;
+        this.cacheManager = cacheManager;
+    }
+
+    @PostPersist
+    @PostUpdate
+    public void onRoleChange(Role role) {
+        afterCommit(roleRegistry::invalidate);
+    }
+
+    @PostRemove
+    public void onRoleRemove(Role role) {
+        afterCommit(() -> {
+            roleRegistry.invalidate();
+            Cache users = cacheManager.getCache(Constants.USERS_CACHE);
+            if (users != null) {
+                users.clear();
+            }
+        });
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
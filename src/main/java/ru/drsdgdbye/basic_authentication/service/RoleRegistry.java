@@ -0,0 +1,151 @@
+package ru.drsdgdbye.basic_authentication.service;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.drsdgdbye.basic_authentication.domain.Role;
+import ru.drsdgdbye.basic_authentication.repository.RoleRepository;
+import ru.drsdgdbye.basic_authentication.security.exceptions.LookupFailedException;
+import ru.drsdgdbye.basic_authentication.security.exceptions.RoleNotFoundException;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * Process-wide immutable snapshot of the role table, id to name.
+ * <p>
+ * Roles are few and rarely change, so role ids are validated in memory. Ids missing from the snapshot
+ * are looked up with one query before they are rejected, and {@link RoleListener} drops the snapshot
+ * whenever a role is written. Roles written outside of the application, deleted ones in particular,
+ * are only seen with the reload every {@code app.roles.refresh-interval}.
+ * <p>
+ * The snapshot is always loaded on a thread of its own, in a transaction of its own on the primary:
+ * a caller does not take a connection for it in its transaction, which could otherwise wait for the
+ * id sequence of a caller that waits for a connection.
+ */
+@Log4j2
+@Component
+public class RoleRegistry {
+    private final RoleRepository roleRepository;
+    private final TransactionTemplate transaction;
+    private final ScheduledExecutorService refresher;
+
+    private final AtomicReference<Map<Long, String>> roles = new AtomicReference<>();
+
+    public RoleRegistry(RoleRepository roleRepository, PlatformTransactionManager transactionManager,
+                        @Value("${app.roles.refresh-interval:1m}") Duration refreshInterval) {
+        this.roleRepository = roleRepository;
+        this.transaction = new TransactionTemplate(transactionManager);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("role-registry-");
+        threadFactory.setDaemon(true);
+        this.refresher = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        long refreshMillis = refreshInterval.toMillis();
+        refresher.scheduleWithFixedDelay(this::reload, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    /**
+     * @param ids role ids.
+     * @throws RoleNotFoundException if any of the ids is not a role.
+     */
+    public void validate(Collection<Long> ids) {
+        Set<Long> missing = findMissing(ids);
+        if (!missing.isEmpty()) {
+            throw new RoleNotFoundException("role not found: " + missing);
+        }
+    }
+
+    /**
+     * @param ids role ids, a {@code null} id is never a role.
+     * @return the ids that are not roles.
+     */
+    public Set<Long> findMissing(Collection<Long> ids) {
+        Map<Long, String> snapshot = snapshot();
+        Set<Long> missing = ids.stream()
+                .filter(id -> id == null || !snapshot.containsKey(id))
+                .collect(Collectors.toSet());
+        if (missing.isEmpty()) {
+            return missing;
+        }
+
+        log.debug("roles missing from registry: {}", missing);
+        List<Role> found = roleRepository.findAllById(missing.stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList()));
+        if (!found.isEmpty()) {
+            Map<Long, String> refreshed = new HashMap<>(snapshot);
+            found.forEach(role -> refreshed.put(role.getId(), role.getName()));
+            // an invalidation or reload since the snapshot was taken wins
+            roles.compareAndSet(snapshot, Map.copyOf(refreshed));
+            found.forEach(role -> missing.remove(role.getId()));
+        }
+        return missing;
+    }
+
+    public Optional<String> getName(Long id) {
+        return id == null ? Optional.empty() : Optional.ofNullable(snapshot().get(id));
+    }
+
+    public void invalidate() {
+        roles.set(null);
+    }
+
+    /**
+     * @throws LookupFailedException if the roles could not be loaded.
+     */
+    private Map<Long, String> snapshot() {
+        Map<Long, String> snapshot = roles.get();
+        if (snapshot != null) {
+            return snapshot;
+        }
+        try {
+            return refresher.submit(this::loadIfMissing).get();
+        } catch (ExecutionException ex) {
+            throw new LookupFailedException("roles could not be loaded", ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new LookupFailedException("interrupted while loading roles", ex);
+        }
+    }
+
+    /**
+     * callers that found no snapshot queue up behind the first load, only that one queries
+     **/
+    private Map<Long, String> loadIfMissing() {
+        Map<Long, String> snapshot = roles.get();
+        return snapshot != null ? snapshot : load();
+    }
+
+    private void reload() {
+        try {
+            load();
+        } catch (RuntimeException ex) {
+            log.warn("roles could not be reloaded, keeping the current snapshot", ex);
+        }
+    }
+
+    /**
+     * @return the loaded roles, kept only if the snapshot did not change while they were read.
+     */
+    private Map<Long, String> load() {
+        Map<Long, String> current = roles.get();
+        Map<Long, String> loaded = transaction.execute(status -> roleRepository.findAll().stream()
+                .collect(Collectors.toUnmodifiableMap(Role::getId, Role::getName)));
+        roles.compareAndSet(current, loaded);
+        return loaded;
+    }
+}
@@ -0,0 +1,15 @@
+package ru.drsdgdbye.basic_authentication.service;
+
+/**
+ * How {@code GET /search} matches the query against login and name, case-insensitively.
+ */
+public enum SearchMode {
+    /**
+     * the value starts with the query, served by the {@code lower(...) text_pattern_ops} indexes
+     */
+    PREFIX,
+    /**
+     * the value contains the query, served by the trigram indexes
+     */
+    CONTAINS
+}
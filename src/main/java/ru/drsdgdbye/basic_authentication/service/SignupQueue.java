@@ -0,0 +1,291 @@
+package ru.drsdgdbye.basic_authentication.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import ru.drsdgdbye.basic_authentication.security.exceptions.RoleNotFoundException;
+import ru.drsdgdbye.basic_authentication.security.exceptions.SignupNotFoundException;
+import ru.drsdgdbye.basic_authentication.security.exceptions.TooManyRequestsException;
+import ru.drsdgdbye.basic_authentication.security.exceptions.UserAlreadyExistsException;
+import ru.drsdgdbye.basic_authentication.service.dto.SignupStatusDto;
+import ru.drsdgdbye.basic_authentication.service.dto.UserDto;
+import ru.drsdgdbye.basic_authentication.service.dto.UserImportResultDto;
+import ru.drsdgdbye.basic_authentication.utils.LoginUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+/**
+ * Write-behind queue of {@code POST /add/async}: signups are checked and their logins reserved on the request
+ * thread, the inserts are written by one writer thread in group commits.
+ * <p>
+ * The writer takes up to {@code app.signup-queue.batch-size} signups, or what arrived within
+ * {@code app.signup-queue.flush-interval} of the first one, and creates them in one transaction through
+ * {@link UserService#importUsers(List, int)}, so the batch shares one login query, one parallel hashing run and
+ * one commit. A batch that fails as a whole is written again one signup at a time, a signup whose login was taken
+ * by a concurrent writer in the meantime then ends as {@code ALREADY_EXISTS}. The outcome of every signup is kept
+ * for {@code app.signup-queue.status-ttl}, at most {@code app.signup-queue.status-maximum-size} of them, to be
+ * polled by its tracking id.
+ * <p>
+ * The queue holds {@code app.signup-queue.capacity} signups, a full queue fails with {@link TooManyRequestsException}.
+ * On shutdown no signups are accepted any more and the writer flushes the queue before the database goes away.
+ */
+@Log4j2
+@Component
+public class SignupQueue {
+    private static final List<String> WRITE_FAILED = List.of("user could not be created");
+
+    private final UserService userService;
+    private final RoleRegistry roleRegistry;
+    private final BlockingQueue<Signup> queue;
+    private final Map<String, Signup> reserved = new ConcurrentHashMap<>();
+    private final Cache<String, SignupStatusDto> statuses;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final Duration shutdownTimeout;
+    private final Thread writer;
+    private final DistributionSummary batches;
+
+    /**
+     * guards closed against signups offered while the queue is closed
+     **/
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean closed;
+
+    public SignupQueue(UserService userService, RoleRegistry roleRegistry, MeterRegistry meterRegistry,
+                       @Value("${app.signup-queue.capacity:10000}") int capacity,
+                       @Value("${app.signup-queue.batch-size:500}") int batchSize,
+                       @Value("${app.signup-queue.flush-interval:50ms}") Duration flushInterval,
+                       @Value("${app.signup-queue.status-ttl:10m}") Duration statusTtl,
+                       @Value("${app.signup-queue.status-maximum-size:100000}") long statusMaximumSize,
+                       @Value("${app.signup-queue.shutdown-timeout:30s}") Duration shutdownTimeout) {
+        this.userService = userService;
+        this.roleRegistry = roleRegistry;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.statuses = Caffeine.newBuilder()
+                .maximumSize(statusMaximumSize)
+                .expireAfterWrite(statusTtl)
+                .build();
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.shutdownTimeout = shutdownTimeout;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("signup-writer-");
+        threadFactory.setDaemon(true);
+        this.writer = threadFactory.newThread(this::run);
+        this.batches = DistributionSummary.builder("users.signups.batch.size")
+                .description("signups written in one group commit")
+                .register(meterRegistry);
+        Gauge.builder("users.signups.queued", queue, BlockingQueue::size)
+                .description("signups waiting for the writer")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        writer.start();
+    }
+
+    /**
+     * Stops accepting signups and waits up to {@code app.signup-queue.shutdown-timeout} for the queued ones to be written.
+     */
+    @PreDestroy
+    public void shutdown() {
+        lock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            writer.join(shutdownTimeout.toMillis());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive() || !queue.isEmpty()) {
+            log.warn("{} queued signups were not written before shutdown", queue.size());
+        }
+    }
+
+    /**
+     * Checks the signup, reserves its login and queues it.
+     *
+     * @param userDto the user to create, already validated.
+     * @return the status of the signup with its tracking id.
+     * @throws RoleNotFoundException      if any of the role ids is not a role.
+     * @throws UserAlreadyExistsException if the login is already in use or queued.
+     * @throws TooManyRequestsException   if the queue is full or shutting down.
+     */
+    public SignupStatusDto enqueue(UserDto userDto) {
+        log.debug("enqueue signup of user: {}", userDto);
+
+        roleRegistry.validate(userDto.getRoles());
+        Signup signup = new Signup(UUID.randomUUID().toString(), LoginUtils.normalize(userDto.getLogin()), userDto);
+        if (reserved.putIfAbsent(signup.login, signup) != null) {
+            throw new UserAlreadyExistsException();
+        }
+        try {
+            if (userService.isUserExists(userDto)) {
+                throw new UserAlreadyExistsException();
+            }
+            SignupStatusDto status = signup.status(SignupStatusDto.Status.QUEUED, null, null);
+            statuses.put(signup.trackingId, status);
+            lock.readLock().lock();
+            try {
+                if (closed || !queue.offer(signup)) {
+                    statuses.invalidate(signup.trackingId);
+                    throw new TooManyRequestsException();
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            return status;
+        } catch (RuntimeException ex) {
+            reserved.remove(signup.login, signup);
+            throw ex;
+        }
+    }
+
+    /**
+     * @throws SignupNotFoundException if there is no signup with the tracking id, or its status expired.
+     */
+    public SignupStatusDto getStatus(String trackingId) {
+        SignupStatusDto status = statuses.getIfPresent(trackingId);
+        if (status == null) {
+            throw new SignupNotFoundException();
+        }
+        return status;
+    }
+
+    /**
+     * @return {@code true} if a queued signup holds the login.
+     */
+    public boolean isReserved(String login) {
+        return reserved.containsKey(LoginUtils.normalize(login));
+    }
+
+    private void run() {
+        List<Signup> batch = new ArrayList<>(batchSize);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Signup first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - batch.size());
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < batchSize && !closed) {
+                    Signup next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void write(List<Signup> batch) {
+        log.debug("write {} queued signups", batch.size());
+        batches.record(batch.size());
+        if (batch.size() == 1) {
+            writeOne(batch.get(0));
+            return;
+        }
+        try {
+            complete(batch, importUsers(batch));
+        } catch (RuntimeException ex) {
+            log.warn("group commit of {} signups failed, writing them one by one: {}", batch.size(), ex.getMessage());
+            batch.forEach(this::writeOne);
+        }
+    }
+
+    private void writeOne(Signup signup) {
+        try {
+            complete(List.of(signup), importUsers(List.of(signup)));
+        } catch (UserAlreadyExistsException ex) {
+            log.debug("login of queued signup {} was taken meanwhile", signup.login);
+            statuses.put(signup.trackingId, signup.status(SignupStatusDto.Status.ALREADY_EXISTS, null, null));
+            reserved.remove(signup.login, signup);
+        } catch (RuntimeException ex) {
+            fail(signup, ex);
+        }
+    }
+
+    /**
+     * retries while the hashing pool is saturated, the queue backs up and rejects signups meanwhile
+     **/
+    private List<UserImportResultDto> importUsers(List<Signup> batch) {
+        List<UserDto> users = batch.stream()
+                .map(signup -> signup.user)
+                .collect(Collectors.toList());
+        while (true) {
+            try {
+                return userService.importUsers(users, 0);
+            } catch (TooManyRequestsException ex) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(flushIntervalNanos);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    private void complete(List<Signup> batch, List<UserImportResultDto> results) {
+        for (int i = 0; i < batch.size(); i++) {
+            Signup signup = batch.get(i);
+            UserImportResultDto result = results.get(i);
+            statuses.put(signup.trackingId, signup.status(SignupStatusDto.Status.valueOf(result.getStatus().name()),
+                    result.getId(), result.getErrors()));
+            reserved.remove(signup.login, signup);
+        }
+    }
+
+    private void fail(Signup signup, RuntimeException ex) {
+        log.error("queued signup of {} failed", signup.login, ex);
+        statuses.put(signup.trackingId, signup.status(SignupStatusDto.Status.FAILED, null, WRITE_FAILED));
+        reserved.remove(signup.login, signup);
+    }
+
+    private static final class Signup {
+        private final String trackingId;
+        private final String login;
+        private final UserDto user;
+
+        private Signup(String trackingId, String login, UserDto user) {
+            this.trackingId = trackingId;
+            this.login = login;
+            this.user = user;
+        }
+
+        private SignupStatusDto status(SignupStatusDto.Status status, Long id, List<String> errors) {
+            return new SignupStatusDto(trackingId, login, id, status, errors);
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package ru.drsdgdbye.basic_authentication.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.drsdgdbye.basic_authentication.domain.User;
+import ru.drsdgdbye.basic_authentication.security.exceptions.TooManyRequestsException;
+import ru.drsdgdbye.basic_authentication.service.dto.UserChangeDto;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * In-process feed of committed user changes, served as server-sent events by {@code GET /changes}.
+ * <p>
+ * The last {@code app.changes.capacity} changes are kept in a ring buffer, numbered by a sequence that starts
+ * at 1 with every start of the application. Event ids are {@code <epoch>:<sequence>}, the epoch being the start time
+ * of the feed, so an id of an earlier run is never taken for a sequence of this one. A subscriber is only a cursor
+ * into the ring: it is drained on a pool of {@code app.changes.threads} threads, and dropped when it falls more than
+ * {@code app.changes.subscriber-buffer} changes behind, so a slow client never holds changes in memory. A client that
+ * resumes from an id of another run, or from a sequence the ring no longer has, gets a {@code RESET} event instead,
+ * it has to reload the users and go on from the id of that event.
+ * <p>
+ * Changes are published on the request threads of the writes after commit, which never touch an emitter: a send holds
+ * the monitor of its emitter, so completing one there would wait for a slow client. A dropped subscriber is completed by
+ * its own drain task, and a send that takes longer than {@code app.changes.send-timeout} drops the subscriber and
+ * interrupts the drain thread.
+ */
+@Log4j2
+@Component
+public class UserChangeFeed {
+    public static final String RESET_EVENT = "RESET";
+    private static final int SEND_BATCH_SIZE = 256;
+
+    private final String epoch = Long.toString(System.currentTimeMillis());
+    private final UserChangeDto[] ring;
+    private final int subscriberBuffer;
+    private final int maxSubscribers;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ExecutorService executor;
+    private final ScheduledExecutorService watchdog;
+    private final long sendTimeoutNanos;
+    private final Counter evictions;
+
+    /**
+     * sequence of the last change, guarded by this
+     **/
+    private long head;
+
+    public UserChangeFeed(MeterRegistry meterRegistry,
+                          @Value("${app.changes.capacity:65536}") int capacity,
+                          @Value("${app.changes.subscriber-buffer:1024}") int subscriberBuffer,
+                          @Value("${app.changes.max-subscribers:256}") int maxSubscribers,
+                          @Value("${app.changes.threads:4}") int threads,
+                          @Value("${app.changes.send-timeout:10s}") Duration sendTimeout) {
+        this.ring = new UserChangeDto[capacity];
+        this.subscriberBuffer = Math.min(subscriberBuffer, capacity);
+        this.maxSubscribers = maxSubscribers;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("user-changes-");
+        threadFactory.setDaemon(true);
+        this.executor = Executors.newFixedThreadPool(threads, threadFactory);
+        CustomizableThreadFactory watchdogThreadFactory = new CustomizableThreadFactory("user-changes-watchdog-");
+        watchdogThreadFactory.setDaemon(true);
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(watchdogThreadFactory);
+        this.sendTimeoutNanos = sendTimeout.toNanos();
+        long checkMillis = Math.max(1, Math.min(1000, sendTimeout.toMillis() / 2));
+        watchdog.scheduleWithFixedDelay(this::dropStuckSubscribers, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+        this.evictions = Counter.builder("users.changes.evicted")
+                .description("subscribers of the change feed dropped for falling behind")
+                .register(meterRegistry);
+        Gauge.builder("users.changes.subscribers", subscribers, Set::size)
+                .description("subscribers of the change feed")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+        executor.shutdownNow();
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+    }
+
+    /**
+     * Publishes the users once the current transaction commits, with the version they have then.
+     * Updates that changed nothing did not move the version and are left out.
+     */
+    public void publishAfterCommit(UserChangeKind kind, Collection<User> users) {
+        List<User> changed = List.copyOf(users);
+        List<Long> versions = changed.stream()
+                .map(User::getVersion)
+                .collect(Collectors.toList());
+        afterCommit(() -> {
+            List<UserChangeDto> changes = new ArrayList<>(changed.size());
+            for (int i = 0; i < changed.size(); i++) {
+                User user = changed.get(i);
+                if (kind != UserChangeKind.UPDATED || !Objects.equals(versions.get(i), user.getVersion())) {
+                    changes.add(new UserChangeDto(0, user.getId(), kind, user.getVersion()));
+                }
+            }
+            append(changes);
+        });
+    }
+
+    /**
+     * Publishes changes of users that were not loaded once the current transaction commits, without a version.
+     */
+    public void publishIdsAfterCommit(UserChangeKind kind, Collection<Long> ids) {
+        List<UserChangeDto> changes = ids.stream()
+                .map(id -> new UserChangeDto(0, id, kind, null))
+                .collect(Collectors.toList());
+        afterCommit(() -> append(changes));
+    }
+
+    /**
+     * Registers a subscriber that receives the changes after the given event, then every new one.
+     *
+     * @param emitter     the events are sent to.
+     * @param lastEventId id of the last event the client has seen, {@code null} for new changes only.
+     * @throws TooManyRequestsException if there are {@code app.changes.max-subscribers} subscribers already.
+     */
+    public void subscribe(SseEmitter emitter, String lastEventId) {
+        if (subscribers.size() >= maxSubscribers) {
+            throw new TooManyRequestsException();
+        }
+        Subscriber subscriber = new Subscriber(emitter);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(ex -> subscribers.remove(subscriber));
+        Long after = lastEventId == null ? null : sequenceOf(lastEventId);
+        synchronized (this) {
+            if (lastEventId == null) {
+                subscriber.cursor = head;
+            } else if (after != null && isRetained(after)) {
+                subscriber.cursor = after;
+            } else {
+                subscriber.cursor = head;
+                subscriber.reset = true;
+            }
+            subscribers.add(subscriber);
+        }
+        subscriber.signal();
+    }
+
+    public synchronized long head() {
+        return head;
+    }
+
+    /**
+     * @return the id of the last event, to subscribe from.
+     */
+    public String lastEventId() {
+        return eventId(head());
+    }
+
+    String eventId(long sequence) {
+        return epoch + ':' + sequence;
+    }
+
+    /**
+     * @return the sequence of an event id of this run, {@code null} for an id of another run or a malformed one.
+     */
+    private Long sequenceOf(String eventId) {
+        int separator = eventId.lastIndexOf(':');
+        if (separator < 0 || !epoch.equals(eventId.substring(0, separator))) {
+            return null;
+        }
+        try {
+            return Long.parseLong(eventId.substring(separator + 1));
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private void afterCommit(Runnable publish) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publish.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                publish.run();
+            }
+        });
+    }
+
+    private void append(List<UserChangeDto> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        List<Subscriber> lagging = new ArrayList<>();
+        synchronized (this) {
+            for (UserChangeDto change : changes) {
+                change.setSequence(++head);
+                ring[(int) (head % ring.length)] = change;
+            }
+            for (Subscriber subscriber : subscribers) {
+                if (head - subscriber.cursor > subscriberBuffer) {
+                    lagging.add(subscriber);
+                }
+            }
+        }
+        lagging.forEach(this::evict);
+        subscribers.forEach(Subscriber::signal);
+    }
+
+    /**
+     * @return the changes after the sequence, or {@code null} if the ring does not have them any more.
+     */
+    private synchronized List<UserChangeDto> read(long after) {
+        if (!isRetained(after)) {
+            return null;
+        }
+        int size = (int) Math.min(head - after, SEND_BATCH_SIZE);
+        List<UserChangeDto> changes = new ArrayList<>(size);
+        for (long sequence = after + 1; sequence <= after + size; sequence++) {
+            changes.add(ring[(int) (sequence % ring.length)]);
+        }
+        return changes;
+    }
+
+    private boolean isRetained(long after) {
+        return after <= head && head - after <= ring.length;
+    }
+
+    /**
+     * Drops the subscriber without touching its emitter, the drain task completes it.
+     */
+    private void evict(Subscriber subscriber) {
+        subscriber.evicted = true;
+        if (subscribers.remove(subscriber)) {
+            log.debug("evict change feed subscriber at sequence {}", subscriber.cursor);
+            evictions.increment();
+            subscriber.signal();
+        }
+    }
+
+    private void dropStuckSubscribers() {
+        long startedBefore = System.nanoTime() - sendTimeoutNanos;
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.isSendStartedBefore(startedBefore)) {
+                evict(subscriber);
+                subscriber.interruptSendStartedBefore(startedBefore);
+            }
+        }
+    }
+
+    private final class Subscriber {
+        private final SseEmitter emitter;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean completed = new AtomicBoolean();
+        private volatile long cursor;
+        private volatile boolean reset;
+        private volatile boolean evicted;
+
+        /**
+         * the thread of the send in progress and when it started, guarded by the subscriber
+         **/
+        private Thread sender;
+        private long sendStarted;
+
+        private Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        private void signal() {
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+
+        /**
+         * runs on one pool thread at a time, a blocked send stalls only this subscriber until it is evicted
+         **/
+        private void drain() {
+            try {
+                if (reset && subscribers.contains(this)) {
+                    reset = false;
+                    send(SseEmitter.event().id(eventId(cursor)).name(RESET_EVENT).data(cursor));
+                }
+                while (subscribers.contains(this)) {
+                    List<UserChangeDto> changes = read(cursor);
+                    if (changes == null) {
+                        evict(this);
+                        return;
+                    }
+                    if (changes.isEmpty()) {
+                        scheduled.set(false);
+                        if (head() == cursor || !scheduled.compareAndSet(false, true)) {
+                            return;
+                        }
+                        continue;
+                    }
+                    for (UserChangeDto change : changes) {
+                        send(SseEmitter.event()
+                                .id(eventId(change.getSequence()))
+                                .name(change.getKind().name())
+                                .data(change, MediaType.APPLICATION_JSON));
+                        cursor = change.getSequence();
+                    }
+                }
+            } catch (IOException | IllegalStateException ex) {
+                log.debug("change feed subscriber gone: {}", ex.getMessage());
+                subscribers.remove(this);
+            } finally {
+                completeIfEvicted();
+            }
+        }
+
+        private void send(SseEmitter.SseEventBuilder event) throws IOException {
+            synchronized (this) {
+                sender = Thread.currentThread();
+                sendStarted = System.nanoTime();
+            }
+            try {
+                emitter.send(event);
+            } finally {
+                synchronized (this) {
+                    sender = null;
+                    // an interrupt of the watchdog must not leak into the next task of the pool thread
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        private synchronized boolean isSendStartedBefore(long nanos) {
+            return sender != null && sendStarted - nanos < 0;
+        }
+
+        private synchronized void interruptSendStartedBefore(long nanos) {
+            if (isSendStartedBefore(nanos)) {
+                sender.interrupt();
+            }
+        }
+
+        private void completeIfEvicted() {
+            if (evicted && completed.compareAndSet(false, true)) {
+                try {
+                    emitter.complete();
+                } catch (RuntimeException ex) {
+                    log.debug("change feed subscriber not completed: {}", ex.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package ru.drsdgdbye.basic_authentication.service;
+
+/**
+ * What happened to a user, the name of the events of {@code GET /changes}.
+ */
+public enum UserChangeKind {
+    CREATED,
+    UPDATED,
+    DELETED
+}
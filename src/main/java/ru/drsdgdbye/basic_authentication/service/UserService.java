@@ -1,18 +1,57 @@
 package ru.drsdgdbye.basic_authentication.service;
 
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.log4j.Log4j2;
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.drsdgdbye.basic_authentication.domain.Role;
 import ru.drsdgdbye.basic_authentication.domain.User;
 import ru.drsdgdbye.basic_authentication.repository.RoleRepository;
 import ru.drsdgdbye.basic_authentication.repository.UserRepository;
+import ru.drsdgdbye.basic_authentication.repository.UserRoleRow;
+import ru.drsdgdbye.basic_authentication.security.CredentialsCache;
+import ru.drsdgdbye.basic_authentication.security.PasswordHasher;
+import ru.drsdgdbye.basic_authentication.security.exceptions.InvalidSearchQueryException;
+import ru.drsdgdbye.basic_authentication.security.exceptions.LookupFailedException;
+import ru.drsdgdbye.basic_authentication.security.exceptions.LookupTimeoutException;
+import ru.drsdgdbye.basic_authentication.security.exceptions.RoleNotFoundException;
+import ru.drsdgdbye.basic_authentication.security.exceptions.TooManyRequestsException;
+import ru.drsdgdbye.basic_authentication.security.exceptions.UserAlreadyExistsException;
+import ru.drsdgdbye.basic_authentication.security.exceptions.UserModifiedException;
 import ru.drsdgdbye.basic_authentication.security.exceptions.UserNotFoundException;
+import ru.drsdgdbye.basic_authentication.service.dto.UserDeleteResultDto;
 import ru.drsdgdbye.basic_authentication.service.dto.UserDto;
+import ru.drsdgdbye.basic_authentication.service.dto.UserExportDto;
+import ru.drsdgdbye.basic_authentication.service.dto.UserImportResultDto;
+import ru.drsdgdbye.basic_authentication.service.dto.UserListDto;
+import ru.drsdgdbye.basic_authentication.service.dto.UserPatchDto;
 import ru.drsdgdbye.basic_authentication.service.dto.UserWithoutRolesDto;
+import ru.drsdgdbye.basic_authentication.utils.Constants;
+import ru.drsdgdbye.basic_authentication.utils.LoginUtils;
+import ru.drsdgdbye.basic_authentication.utils.SingleFlight;
 
-import javax.transaction.Transactional;
-import java.util.List;
-import java.util.Objects;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import javax.validation.groups.Default;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Service class for managing users.
@@ -21,89 +60,603 @@ import java.util.stream.Collectors;
 @Service
 @Transactional
 public class UserService {
+    private static final String SERVICE_TIMER = "users.service";
+    private static final String COALESCED_COUNTER = "users.lookups.coalesced";
+
     private final UserRepository userRepository;
     private final RoleRepository roleRepository;
+    private final Validator validator;
+    private final LoginFilter loginFilter;
+    private final RoleRegistry roleRegistry;
+    private final CredentialsCache credentialsCache;
+    private final PasswordHasher passwordHasher;
+    private final UserChangeFeed changeFeed;
+    private final CacheManager cacheManager;
+    private final SingleFlight<Long, List<UserRoleRow>> userLookups;
+    private final SingleFlight<String, Boolean> loginLookups;
+    private final TransactionTemplate transaction;
 
-    public UserService(UserRepository userRepository, RoleRepository roleRepository) {
+    public UserService(UserRepository userRepository, RoleRepository roleRepository, Validator validator,
+                       LoginFilter loginFilter, RoleRegistry roleRegistry, CredentialsCache credentialsCache,
+                       PasswordHasher passwordHasher, UserChangeFeed changeFeed, CacheManager cacheManager,
+                       MeterRegistry meterRegistry, PlatformTransactionManager transactionManager,
+                       @Value("${app.lookups.timeout:5s}") Duration lookupTimeout) {
         this.userRepository = userRepository;
         this.roleRepository = roleRepository;
+        this.validator = validator;
+        this.loginFilter = loginFilter;
+        this.roleRegistry = roleRegistry;
+        this.credentialsCache = credentialsCache;
+        this.passwordHasher = passwordHasher;
+        this.changeFeed = changeFeed;
+        this.cacheManager = cacheManager;
+        this.userLookups = new SingleFlight<>(lookupTimeout, meterRegistry.counter(COALESCED_COUNTER, "lookup", "id"));
+        this.loginLookups = new SingleFlight<>(lookupTimeout, meterRegistry.counter(COALESCED_COUNTER, "lookup", "login"));
+        this.transaction = new TransactionTemplate(transactionManager);
     }
 
     /**
      * Create new user.
+     * <p>
+     * The user is inserted straight away and the unique constraint on login decides if it is already used,
+     * so there is no separate existence check and concurrent creations of the same login cannot both pass.
      *
      * @param userDto new user.
+     * @throws UserAlreadyExistsException if the login is already in use.
+     * @throws RoleNotFoundException      if any of the role ids is not a role.
+     * @throws TooManyRequestsException   if the password hashing pool is saturated.
      */
+    @Timed(SERVICE_TIMER)
     public void createUser(UserDto userDto) {
         log.debug("create user from userDto: {}", userDto);
 
+        String hash = passwordHasher.hash(userDto.getPassword());
+        roleRegistry.validate(userDto.getRoles());
         User newUser = new User();
-        newUser.setLogin(userDto.getLogin().toLowerCase().strip());
+        newUser.setLogin(LoginUtils.normalize(userDto.getLogin()));
         newUser.setName(userDto.getName());
-        newUser.setPassword(userDto.getPassword());
+        newUser.setPassword(hash);
         userDto.getRoles().stream()
                 .map(roleRepository::getOne)
                 .forEach(newUser::addRole);
 
-        userRepository.save(newUser);
+        try {
+            userRepository.saveAndFlush(newUser);
+        } catch (DataIntegrityViolationException ex) {
+            if (isLoginConstraintViolation(ex)) {
+                throw new UserAlreadyExistsException();
+            }
+            throw ex;
+        }
+        loginFilter.putAfterCommit(newUser.getLogin());
+        changeFeed.publishAfterCommit(UserChangeKind.CREATED, List.of(newUser));
+    }
+
+    /**
+     * Import a chunk of new users in one transaction.
+     * <p>
+     * Existing logins are checked with one query for the whole chunk, role ids are validated against
+     * the {@link RoleRegistry} and the users are inserted in jdbc batches. Invalid rows and already used logins are reported and skipped.
+     * The passwords of valid rows are hashed before the first query, so no connection is held while hashing.
+     *
+     * @param users  new users.
+     * @param offset position of the first user of the chunk in the whole import.
+     * @return the result for every user of the chunk.
+     * @throws TooManyRequestsException   if the password hashing pool is saturated.
+     * @throws UserAlreadyExistsException if a login was taken by a concurrent writer after the check, nothing is created then.
+     */
+    @Timed(SERVICE_TIMER)
+    public List<UserImportResultDto> importUsers(List<UserDto> users, int offset) {
+        log.debug("import {} users starting at: {}", users.size(), offset);
+
+        List<List<String>> errors = new ArrayList<>(users.size());
+        List<String> passwords = new ArrayList<>();
+        for (UserDto userDto : users) {
+            List<String> userErrors = validator.validate(userDto, Default.class, UserDto.New.class).stream()
+                    .map(ConstraintViolation::getMessage)
+                    .collect(Collectors.toList());
+            if (!Objects.isNull(userDto.getId())) {
+                userErrors.add("id must be null");
+            }
+            if (userErrors.isEmpty()) {
+                passwords.add(userDto.getPassword());
+            }
+            errors.add(userErrors);
+        }
+        Iterator<String> hashes = passwordHasher.hashAll(passwords).iterator();
+
+        Set<String> logins = users.stream()
+                .filter(userDto -> !Objects.isNull(userDto.getLogin()))
+                .map(userDto -> LoginUtils.normalize(userDto.getLogin()))
+                .collect(Collectors.toSet());
+        Set<String> takenLogins = logins.isEmpty() ? new HashSet<>() : userRepository.findExistingLogins(logins);
+        Set<Long> missingRoles = roleRegistry.findMissing(users.stream()
+                .filter(userDto -> !Objects.isNull(userDto.getRoles()))
+                .flatMap(userDto -> userDto.getRoles().stream())
+                .collect(Collectors.toSet()));
+
+        List<UserImportResultDto> report = new ArrayList<>(users.size());
+        Map<UserImportResultDto, User> created = new LinkedHashMap<>();
+        for (int i = 0; i < users.size(); i++) {
+            UserDto userDto = users.get(i);
+            List<String> userErrors = errors.get(i);
+            String hash = null;
+            if (userErrors.isEmpty()) {
+                hash = hashes.next();
+                userDto.getRoles().stream()
+                        .filter(missingRoles::contains)
+                        .forEach(roleId -> userErrors.add("role not found: " + roleId));
+            }
+            if (!userErrors.isEmpty()) {
+                report.add(new UserImportResultDto(offset + i, userDto.getLogin(), null, UserImportResultDto.Status.INVALID, userErrors));
+                continue;
+            }
+
+            String login = LoginUtils.normalize(userDto.getLogin());
+            if (!takenLogins.add(login)) {
+                report.add(new UserImportResultDto(offset + i, login, null, UserImportResultDto.Status.ALREADY_EXISTS, null));
+                continue;
+            }
+
+            User newUser = new User();
+            newUser.setLogin(login);
+            newUser.setName(userDto.getName());
+            newUser.setPassword(hash);
+            userDto.getRoles().stream()
+                    .map(roleRepository::getOne)
+                    .forEach(newUser::addRole);
+            UserImportResultDto result = new UserImportResultDto(offset + i, login, null, UserImportResultDto.Status.CREATED, null);
+            report.add(result);
+            created.put(result, newUser);
+        }
+
+        try {
+            userRepository.saveAll(created.values());
+            userRepository.flush();
+        } catch (DataIntegrityViolationException ex) {
+            if (isLoginConstraintViolation(ex)) {
+                throw new UserAlreadyExistsException();
+            }
+            throw ex;
+        }
+        created.forEach((result, user) -> {
+            result.setId(user.getId());
+            loginFilter.putAfterCommit(user.getLogin());
+        });
+        changeFeed.publishAfterCommit(UserChangeKind.CREATED, created.values());
+        return report;
     }
 
     /**
      * Update all information for a specific user.
+     * <p>
+     * The role set is changed in place, so only the join rows of added and removed roles are written, and only
+     * changed columns are updated. A dto without password keeps the stored one without verifying anything, a given
+     * one goes through {@link #changePassword(Long, String)} outside the transaction of the update. Cached credentials
+     * of the user are dropped after commit when the password or roles change.
+     * <p>
+     * A version in the dto must be the current one, and the update fails at commit when another one commits first.
      *
      * @param userDto user to update.
+     * @throws RoleNotFoundException    if any of the role ids is not a role.
+     * @throws UserNotFoundException    if the user does not exist.
+     * @throws UserModifiedException    if the version of the dto is not the current one, or the password changed meanwhile.
+     * @throws TooManyRequestsException if the password hashing pool is saturated.
      */
+    @CacheEvict(cacheNames = Constants.USERS_CACHE, key = "#userDto.id")
+    @Timed(SERVICE_TIMER)
+    @Transactional(propagation = Propagation.SUPPORTS)
     public void updateUser(UserDto userDto) {
         log.debug("update user from userDto: {}", userDto);
 
+        PasswordChange passwordChange = userDto.getPassword() == null ? null : changePassword(userDto.getId(), userDto.getPassword());
+        transaction.executeWithoutResult(status -> writeUpdate(userDto, passwordChange));
+    }
+
+    private void writeUpdate(UserDto userDto, PasswordChange passwordChange) {
+        roleRegistry.validate(userDto.getRoles());
         User updateUser = userRepository.findById(userDto.getId()).orElseThrow(UserNotFoundException::new);
+        checkVersion(updateUser, userDto.getVersion());
         updateUser.setName(userDto.getName());
-        updateUser.setPassword(userDto.getPassword());
 
-        updateUser.setRoles(userDto.getRoles().stream()
-                .map(roleRepository::getOne)
-                .collect(Collectors.toSet()));
+        boolean passwordChanged = applyPasswordChange(updateUser, passwordChange);
+        boolean rolesChanged = updateRoles(updateUser, userDto.getRoles());
 
-        userRepository.save(updateUser);
+        if (passwordChanged || rolesChanged) {
+            credentialsCache.invalidateAfterCommit(updateUser.getId());
+        }
+        forgetLookupsAfterCommit(Set.of(updateUser.getId()));
+        changeFeed.publishAfterCommit(UserChangeKind.UPDATED, List.of(updateUser));
     }
 
     /**
-     * Get a list of all the users.
+     * Apply a partial update to a specific user.
+     * <p>
+     * Only the fields present in the patch are validated, against the constraints of {@link UserDto}, and applied.
+     * Roles are only looked up when they are patched, and the update only writes the changed columns.
+     * A patched password goes through {@link #changePassword(Long, String)} outside the transaction of the patch.
      *
-     * @return a list of all the users.
+     * @param id      id of the user to update.
+     * @param patch   the fields to change.
+     * @param version the version the patch was made against, {@code null} to patch any version.
+     * @throws javax.validation.ConstraintViolationException if a patched field is invalid.
+     * @throws RoleNotFoundException    if any of the patched role ids is not a role.
+     * @throws UserNotFoundException    if the user does not exist.
+     * @throws UserModifiedException    if the version is not the current one, or the password changed meanwhile.
+     * @throws TooManyRequestsException if the password hashing pool is saturated.
      */
-    public List<UserWithoutRolesDto> getUsersList() {
-        log.debug("get list of users");
+    @CacheEvict(cacheNames = Constants.USERS_CACHE, key = "#id")
+    @Timed(SERVICE_TIMER)
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public void patchUser(Long id, UserPatchDto patch, Long version) {
+        log.debug("patch user with id: {}", id);
 
-        return userRepository.findAll().stream()
-                .map(UserWithoutRolesDto::new)
-                .collect(Collectors.toList());
+        Set<ConstraintViolation<UserDto>> violations = new LinkedHashSet<>();
+        if (patch.contains(UserPatchDto.NAME)) {
+            violations.addAll(validator.validateValue(UserDto.class, UserPatchDto.NAME, patch.getName()));
+        }
+        if (patch.contains(UserPatchDto.PASSWORD)) {
+            violations.addAll(validator.validateValue(UserDto.class, UserPatchDto.PASSWORD, patch.getPassword(),
+                    Default.class, UserDto.New.class));
+        }
+        if (patch.contains(UserPatchDto.ROLES)) {
+            violations.addAll(validator.validateValue(UserDto.class, UserPatchDto.ROLES, patch.getRoles()));
+        }
+        if (!violations.isEmpty()) {
+            throw new javax.validation.ConstraintViolationException(violations);
+        }
+        PasswordChange passwordChange = patch.contains(UserPatchDto.PASSWORD) ? changePassword(id, patch.getPassword()) : null;
+        transaction.executeWithoutResult(status -> writePatch(id, patch, version, passwordChange));
+    }
+
+    private void writePatch(Long id, UserPatchDto patch, Long version, PasswordChange passwordChange) {
+        if (patch.contains(UserPatchDto.ROLES)) {
+            roleRegistry.validate(patch.getRoles());
+        }
+
+        User patchUser = userRepository.findById(id).orElseThrow(UserNotFoundException::new);
+        checkVersion(patchUser, version);
+        if (patch.contains(UserPatchDto.NAME)) {
+            patchUser.setName(patch.getName());
+        }
+        boolean passwordChanged = applyPasswordChange(patchUser, passwordChange);
+        boolean rolesChanged = patch.contains(UserPatchDto.ROLES) && updateRoles(patchUser, patch.getRoles());
+
+        if (passwordChanged || rolesChanged) {
+            credentialsCache.invalidateAfterCommit(patchUser.getId());
+        }
+        forgetLookupsAfterCommit(Set.of(patchUser.getId()));
+        changeFeed.publishAfterCommit(UserChangeKind.UPDATED, List.of(patchUser));
+    }
+
+    /**
+     * Rehash a password that was just verified, when it is stored as plain text or with a lower cost than configured.
+     *
+     * @param id             id of the user.
+     * @param storedPassword the stored password the login was verified against.
+     * @param password       the verified password.
+     * @throws TooManyRequestsException if the password hashing pool is saturated.
+     */
+    @CacheEvict(cacheNames = Constants.USERS_CACHE, key = "#id")
+    @Timed(SERVICE_TIMER)
+    public void rehashPassword(Long id, String storedPassword, String password) {
+        log.debug("rehash password of user with id: {}", id);
+
+        if (userRepository.updatePassword(id, storedPassword, passwordHasher.hash(password)) > 0) {
+            forgetLookupsAfterCommit(Set.of(id));
+            changeFeed.publishIdsAfterCommit(UserChangeKind.UPDATED, Set.of(id));
+        }
+    }
+
+    /**
+     * Get one keyset page of users ordered by id.
+     *
+     * @param after id of the last user of the previous page, {@code 0} for the first page.
+     * @param limit maximum number of users on the page.
+     * @return the page with the cursor of the next one.
+     */
+    @Timed(SERVICE_TIMER)
+    @Transactional(readOnly = true)
+    public UserListDto getUsersPage(Long after, int limit) {
+        log.debug("get page of users after id: {}, limit: {}", after, limit);
+
+        return toPage(userRepository.findPageAfter(after, PageRequest.of(0, limit + 1)), limit);
+    }
+
+    /**
+     * Search one keyset page of users ordered by id whose login or name matches the query, ignoring case.
+     *
+     * @param query the text to match, {@link SearchMode#CONTAINS} needs at least {@link Constants#SEARCH_MIN_CONTAINS_LENGTH} characters.
+     * @param mode  how to match.
+     * @param after id of the last user of the previous page, {@code 0} for the first page.
+     * @param limit maximum number of users on the page.
+     * @return the page with the cursor of the next one.
+     * @throws InvalidSearchQueryException if the query is too short for the mode.
+     */
+    @Timed(SERVICE_TIMER)
+    @Transactional(readOnly = true)
+    public UserListDto searchUsers(String query, SearchMode mode, Long after, int limit) {
+        log.debug("search users by query: {}, mode: {}, after id: {}, limit: {}", query, mode, after, limit);
+
+        String text = query.toLowerCase().strip();
+        int minLength = mode == SearchMode.CONTAINS ? Constants.SEARCH_MIN_CONTAINS_LENGTH : 1;
+        if (text.length() < minLength) {
+            throw new InvalidSearchQueryException("query must have at least " + minLength + " characters");
+        }
+        String pattern = (mode == SearchMode.CONTAINS ? "%" : "") + text.replaceAll("([!%_])", "!$1") + "%";
+
+        return toPage(userRepository.searchPageAfter(pattern, after, PageRequest.of(0, limit + 1)), limit);
     }
 
     /**
-     * Get a specific user by id.
+     * Get a specific user by id together with the ids of its roles in one query.
+     *
+     * The result is cached by id, see {@link ru.drsdgdbye.basic_authentication.config.CacheConfiguration}.
+     * Concurrent misses of the same id share one query, the transactions of the waiting callers hold no connection
+     * as connections are only taken on the first statement. Writes of the user let later misses start a new query.
+     * <p>
+     * Runs in a read-write transaction to stay on the primary: a miss right after a write would otherwise read a
+     * lagging replica and cache the old row until it expires.
      *
      * @return the user.
+     * @throws UserNotFoundException  if the user does not exist.
+     * @throws LookupTimeoutException if the query of another caller did not finish within {@code app.lookups.timeout}.
+     * @throws LookupFailedException  if the query of another caller failed.
      */
+    @Cacheable(cacheNames = Constants.USERS_CACHE, key = "#id")
+    @Timed(SERVICE_TIMER)
     public UserDto getUser(Long id) {
         log.debug("get one user by id: {}", id);
 
-        User user = userRepository.findById(id).orElseThrow(UserNotFoundException::new);
-        return new UserDto(user);
+        List<UserRoleRow> rows = userLookups.execute(id, () -> userRepository.findWithRoleIdsById(id));
+        if (rows.isEmpty()) {
+            throw new UserNotFoundException();
+        }
+        return new UserDto(rows);
+    }
+
+    /**
+     * Pass every user with the ids of its roles to the consumer, in the order of ids.
+     * <p>
+     * The users are read from a database cursor while the consumer runs, so memory use does not depend on the
+     * size of the table, and a slow consumer holds the connection until it is done.
+     *
+     * @param consumer receives the users one by one.
+     */
+    @Timed(SERVICE_TIMER)
+    @Transactional(readOnly = true)
+    public void exportUsers(Consumer<UserExportDto> consumer) {
+        log.debug("export all users");
+
+        try (Stream<UserRoleRow> rows = userRepository.streamAllWithRoleIds()) {
+            UserExportDto user = null;
+            for (Iterator<UserRoleRow> it = rows.iterator(); it.hasNext(); ) {
+                UserRoleRow row = it.next();
+                if (user == null || !user.getId().equals(row.getId())) {
+                    if (user != null) {
+                        consumer.accept(user);
+                    }
+                    user = new UserExportDto(row);
+                }
+                if (row.getRoleId() != null) {
+                    user.getRoles().add(row.getRoleId());
+                }
+            }
+            if (user != null) {
+                consumer.accept(user);
+            }
+        }
     }
 
+    /**
+     * Delete a specific user by id without loading it: one statement for the join rows and one for the user.
+     *
+     * @param id id of the user to delete.
+     * @throws UserNotFoundException if the user does not exist.
+     */
+    @CacheEvict(cacheNames = Constants.USERS_CACHE, key = "#id")
+    @Timed(SERVICE_TIMER)
     public void deleteUser(Long id) {
         log.debug("delete user by id: {}", id);
 
-        User deleteUser = userRepository.findById(id).orElseThrow(UserNotFoundException::new);
-        userRepository.delete(deleteUser);
+        userRepository.deleteRolesByUserIdIn(Set.of(id));
+        if (userRepository.deleteByIdIn(Set.of(id)) == 0) {
+            throw new UserNotFoundException();
+        }
+        loginFilter.onDelete(1);
+        credentialsCache.invalidateAfterCommit(id);
+        forgetLookupsAfterCommit(Set.of(id));
+        changeFeed.publishIdsAfterCommit(UserChangeKind.DELETED, Set.of(id));
+    }
+
+    /**
+     * Delete users by id in one transaction.
+     * <p>
+     * Ids are processed in chunks of {@link Constants#DELETE_CHUNK_SIZE}, each with one query for the existing ids
+     * and one delete for the join rows and the users each. Only the deleted users are evicted
+     * from the users cache, after the commit.
+     *
+     * @param ids ids of the users to delete.
+     * @return the number of deleted users and the ids that did not belong to a user.
+     */
+    @Timed(SERVICE_TIMER)
+    public UserDeleteResultDto deleteUsers(Collection<Long> ids) {
+        log.debug("delete {} users by id", ids.size());
+
+        List<Long> distinctIds = ids.stream()
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(Collectors.toList());
+        Set<Long> notFound = new LinkedHashSet<>();
+        Set<Long> deleted = new HashSet<>();
+        for (int from = 0; from < distinctIds.size(); from += Constants.DELETE_CHUNK_SIZE) {
+            List<Long> chunk = distinctIds.subList(from, Math.min(distinctIds.size(), from + Constants.DELETE_CHUNK_SIZE));
+            Set<Long> existing = userRepository.findExistingIds(chunk);
+            chunk.stream()
+                    .filter(id -> !existing.contains(id))
+                    .forEach(notFound::add);
+            if (!existing.isEmpty()) {
+                userRepository.deleteRolesByUserIdIn(existing);
+                userRepository.deleteByIdIn(existing);
+                deleted.addAll(existing);
+            }
+        }
+
+        if (!deleted.isEmpty()) {
+            loginFilter.onDelete(deleted.size());
+            credentialsCache.invalidateAfterCommit(deleted);
+            evictUsersAfterCommit(deleted);
+            forgetLookupsAfterCommit(deleted);
+            changeFeed.publishIdsAfterCommit(UserChangeKind.DELETED, deleted);
+        }
+        return new UserDeleteResultDto(deleted.size(), notFound);
     }
 
+    /**
+     * Check if the login of the user is already used.
+     * <p>
+     * Logins the {@link LoginFilter} has never seen are answered without a query,
+     * the rest are checked with an exists query, shared by concurrent checks of the same login.
+     * The query runs on the primary, {@code PUT /edit} of a user created a moment ago must not miss it on a lagging replica.
+     *
+     * @param userDto the user to check.
+     * @return {@code true} if the login is used.
+     * @throws LookupTimeoutException if the query of another caller did not finish within {@code app.lookups.timeout}.
+     * @throws LookupFailedException  if the query of another caller failed.
+     */
+    @Timed(SERVICE_TIMER)
     public boolean isUserExists(UserDto userDto) {
         log.debug("check if user exists by userDto: {}", userDto);
 
-        String login = userDto.getLogin().toLowerCase().strip();
-        User currentUser = userRepository.findOneByLogin(login).orElse(null);
-        return !Objects.isNull(currentUser);
+        String login = LoginUtils.normalize(userDto.getLogin());
+        if (!loginFilter.mightContain(login)) {
+            return false;
+        }
+        boolean exists = loginLookups.execute(login, () -> userRepository.existsByLogin(login));
+        if (!exists) {
+            loginFilter.falsePositive();
+        }
+        return exists;
+    }
+
+    /**
+     * Evicts the users one by one, clearing the cache would also drop the puts of unrelated reads in flight.
+     */
+    private void evictUsersAfterCommit(Set<Long> ids) {
+        Cache users = cacheManager.getCache(Constants.USERS_CACHE);
+        if (users == null) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            ids.forEach(users::evict);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                ids.forEach(users::evict);
+            }
+        });
+    }
+
+    /**
+     * Lookups of the users in flight may have read them before the commit, later lookups must not join them.
+     * Created logins need nothing: a lookup in flight that missed them answers as if it ran before the insert.
+     */
+    private void forgetLookupsAfterCommit(Set<Long> ids) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            ids.forEach(userLookups::forget);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                ids.forEach(userLookups::forget);
+            }
+        });
+    }
+
+    /**
+     * @return {@code true} if any role was added or removed.
+     */
+    private boolean updateRoles(User user, Set<Long> roleIds) {
+        Set<Long> currentIds = user.getRoles().stream()
+                .map(Role::getId)
+                .collect(Collectors.toSet());
+        boolean removed = user.getRoles().removeIf(role -> !roleIds.contains(role.getId()));
+        List<Long> added = roleIds.stream()
+                .filter(roleId -> !currentIds.contains(roleId))
+                .collect(Collectors.toList());
+        added.stream()
+                .map(roleRepository::getOne)
+                .forEach(user::addRole);
+        return removed || !added.isEmpty();
+    }
+
+    /**
+     * @param users up to {@code limit + 1} users, the extra one only tells that there is a next page.
+     */
+    private static UserListDto toPage(List<UserWithoutRolesDto> users, int limit) {
+        if (users.size() <= limit) {
+            return new UserListDto(users, null);
+        }
+        List<UserWithoutRolesDto> page = users.subList(0, limit);
+        return new UserListDto(page, page.get(limit - 1).getId());
+    }
+
+    /**
+     * Tells a new password apart from the stored one and hashes it without holding a connection: the stored hash
+     * is read in a short transaction, bcrypt runs after it committed and the edit is written in a second one.
+     * Called within a transaction of the caller, everything joins that one instead.
+     *
+     * @return the hash to store, {@code null} if the password is the stored one.
+     * @throws UserNotFoundException    if the user does not exist.
+     * @throws TooManyRequestsException if the password hashing pool is saturated.
+     */
+    private PasswordChange changePassword(Long id, String password) {
+        String storedPassword = transaction.execute(status -> userRepository.findPasswordById(id))
+                .orElseThrow(UserNotFoundException::new);
+        if (passwordHasher.matches(password, storedPassword)) {
+            return null;
+        }
+        return new PasswordChange(storedPassword, passwordHasher.hash(password));
+    }
+
+    /**
+     * the change only applies to the hash it was verified against, the version check of the update covers the rest
+     **/
+    private static boolean applyPasswordChange(User user, PasswordChange passwordChange) {
+        if (passwordChange == null) {
+            return false;
+        }
+        if (!passwordChange.storedPassword.equals(user.getPassword())) {
+            throw new UserModifiedException();
+        }
+        user.setPassword(passwordChange.password);
+        return true;
+    }
+
+    private static void checkVersion(User user, Long version) {
+        if (version != null && !version.equals(user.getVersion())) {
+            throw new UserModifiedException();
+        }
+    }
+
+    private static boolean isLoginConstraintViolation(DataIntegrityViolationException ex) {
+        if (!(ex.getCause() instanceof ConstraintViolationException)) {
+            return false;
+        }
+        String constraintName = ((ConstraintViolationException) ex.getCause()).getConstraintName();
+        return !Objects.isNull(constraintName) && constraintName.toLowerCase().contains(User.LOGIN_CONSTRAINT);
+    }
+
+    private static final class PasswordChange {
+        private final String storedPassword;
+        private final String password;
+
+        private PasswordChange(String storedPassword, String password) {
+            this.storedPassword = storedPassword;
+            this.password = password;
+        }
     }
 }
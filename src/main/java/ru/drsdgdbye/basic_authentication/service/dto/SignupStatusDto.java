@@ -0,0 +1,37 @@
+package ru.drsdgdbye.basic_authentication.service.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * Outcome of a queued signup, {@code id} is the id of the created user once it is {@code CREATED}.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SignupStatusDto {
+    private String trackingId;
+
+    private String login;
+
+    private Long id;
+
+    private Status status;
+
+    private List<String> errors;
+
+    public enum Status {
+        QUEUED,
+        CREATED,
+        ALREADY_EXISTS,
+        INVALID,
+        FAILED
+    }
+}
@@ -0,0 +1,25 @@
+package ru.drsdgdbye.basic_authentication.service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import ru.drsdgdbye.basic_authentication.service.UserChangeKind;
+
+/**
+ * One committed change of a user. {@code sequence} orders the changes of the feed and is the cursor to resume from,
+ * {@code version} is the version of the user after the change, {@code null} for deletions and password rehashes.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserChangeDto {
+    private long sequence;
+
+    private Long id;
+
+    private UserChangeKind kind;
+
+    private Long version;
+}
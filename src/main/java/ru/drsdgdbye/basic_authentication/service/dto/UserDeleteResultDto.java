@@ -0,0 +1,21 @@
+package ru.drsdgdbye.basic_authentication.service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.Set;
+
+/**
+ * Outcome of a bulk delete, {@code notFound} lists the requested ids that did not belong to a user.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserDeleteResultDto {
+    private int deleted;
+
+    private Set<Long> notFound;
+}
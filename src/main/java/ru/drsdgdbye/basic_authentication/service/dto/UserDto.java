@@ -1,12 +1,12 @@
 package ru.drsdgdbye.basic_authentication.service.dto;
 
-import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 import ru.drsdgdbye.basic_authentication.domain.Role;
 import ru.drsdgdbye.basic_authentication.domain.User;
+import ru.drsdgdbye.basic_authentication.repository.UserRoleRow;
 import ru.drsdgdbye.basic_authentication.utils.Constants;
 
 import javax.validation.constraints.NotBlank;
@@ -14,6 +14,8 @@ import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Pattern;
 import javax.validation.constraints.Size;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -29,12 +31,11 @@ public class UserDto {
     private String login;
 
     /**
-     * this weird construction with @JsonIgnore to set password in entity without reading from
+     * read from requests only, never written to responses. An edit without it keeps the current one
      **/
     @Size(max = 64)
-    @Setter(onMethod_ = {@JsonIgnore})
-    @Getter(onMethod_ = {@JsonProperty})
-    @NotBlank(message = "password must not be null or empty")
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
+    @NotBlank(groups = New.class, message = "password must not be null or empty")
     @Pattern(regexp = Constants.PASSWORD_REGEX, message = "password must have >0 alphabetic in upper case and number. size must be >=4")
     private String password;
 
@@ -45,13 +46,40 @@ public class UserDto {
     @NotNull(message = "roles must not be null")
     private Set<Long> roles = new HashSet<>();
 
+    /**
+     * version the client has read, an edit carrying a stale one is rejected instead of overwriting a newer change
+     **/
+    private Long version;
+
+    /**
+     * validation group of the constraints that only apply to new users, validated together with the default group
+     **/
+    public interface New {
+    }
+
     public UserDto(User user) {
         this.id = user.getId();
         this.login = user.getLogin();
         this.password = user.getPassword();
         this.name = user.getName();
+        this.version = user.getVersion();
         this.roles.addAll(user.getRoles().stream()
                 .map(Role::getId)
                 .collect(Collectors.toSet()));
     }
+
+    /**
+     * @param rows the rows of one user, at least one.
+     */
+    public UserDto(List<UserRoleRow> rows) {
+        UserRoleRow first = rows.get(0);
+        this.id = first.getId();
+        this.login = first.getLogin();
+        this.name = first.getName();
+        this.version = first.getVersion();
+        rows.stream()
+                .map(UserRoleRow::getRoleId)
+                .filter(Objects::nonNull)
+                .forEach(this.roles::add);
+    }
 }
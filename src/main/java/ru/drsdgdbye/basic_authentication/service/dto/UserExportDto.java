@@ -0,0 +1,34 @@
+package ru.drsdgdbye.basic_authentication.service.dto;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import ru.drsdgdbye.basic_authentication.repository.UserRoleRow;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * One user of a full export with the ids of its roles, without the password.
+ */
+@Getter
+@Setter
+@NoArgsConstructor //empty constructor for jackson
+public class UserExportDto {
+    private Long id;
+
+    private String login;
+
+    private String name;
+
+    private Long version;
+
+    private Set<Long> roles = new HashSet<>();
+
+    public UserExportDto(UserRoleRow row) {
+        this.id = row.getId();
+        this.login = row.getLogin();
+        this.name = row.getName();
+        this.version = row.getVersion();
+    }
+}
@@ -0,0 +1,35 @@
+package ru.drsdgdbye.basic_authentication.service.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * Outcome of importing one user, {@code index} is the position of the user in the imported document.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UserImportResultDto {
+    private int index;
+
+    private String login;
+
+    private Long id;
+
+    private Status status;
+
+    private List<String> errors;
+
+    public enum Status {
+        CREATED,
+        ALREADY_EXISTS,
+        INVALID
+    }
+}
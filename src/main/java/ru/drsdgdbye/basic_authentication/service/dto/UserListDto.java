@@ -0,0 +1,22 @@
+package ru.drsdgdbye.basic_authentication.service.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One keyset page of users. {@code next} is the cursor for the following page,
+ * absent when this page is the last one.
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UserListDto {
+    private List<UserWithoutRolesDto> users;
+
+    private Long next;
+}
@@ -0,0 +1,57 @@
+package ru.drsdgdbye.basic_authentication.service.dto;
+
+import com.fasterxml.jackson.annotation.JsonAnySetter;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * JSON Merge Patch of a user. Only the members present in the document are applied, an explicit {@code null}
+ * counts as present and is rejected by validation. Login and id cannot be patched, like any unknown member.
+ */
+@NoArgsConstructor //empty constructor for jackson
+public class UserPatchDto {
+    public static final String NAME = "name";
+    public static final String PASSWORD = "password";
+    public static final String ROLES = "roles";
+
+    private final Set<String> fields = new HashSet<>();
+
+    @Getter
+    private String name;
+
+    @Getter
+    private String password;
+
+    @Getter
+    private Set<Long> roles;
+
+    public void setName(String name) {
+        this.name = name;
+        fields.add(NAME);
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+        fields.add(PASSWORD);
+    }
+
+    public void setRoles(Set<Long> roles) {
+        this.roles = roles;
+        fields.add(ROLES);
+    }
+
+    /**
+     * unknown members are ignored by the object mapper of spring boot, a patch must not drop them silently
+     **/
+    @JsonAnySetter
+    public void setUnknown(String field, Object value) {
+        throw new IllegalArgumentException("field can not be patched: " + field);
+    }
+
+    public boolean contains(String field) {
+        return fields.contains(field);
+    }
+}
@@ -1,19 +1,25 @@
 package ru.drsdgdbye.basic_authentication.service.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import ru.drsdgdbye.basic_authentication.domain.User;
 
 @Getter
 @NoArgsConstructor
+@AllArgsConstructor
 public class UserWithoutRolesDto {
     private Long id;
     private String login;
     private String name;
+    @JsonIgnore
+    private Long version;
 
     public UserWithoutRolesDto(User user) {
         this.id = user.getId();
         this.login = user.getLogin();
         this.name = user.getName();
+        this.version = user.getVersion();
     }
 }
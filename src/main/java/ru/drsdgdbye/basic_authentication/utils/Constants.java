@@ -2,4 +2,17 @@ package ru.drsdgdbye.basic_authentication.utils;
 
 public final class Constants {
     public static final String PASSWORD_REGEX = "(?=.*[0-9])(?=.*[A-Z]).{4,}";
+
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int MAX_PAGE_SIZE = 1000;
+    public static final int STREAM_BATCH_SIZE = 500;
+    public static final int IMPORT_CHUNK_SIZE = 1000;
+    public static final int DELETE_CHUNK_SIZE = 1000;
+    public static final int EXPORT_FETCH_SIZE = 1000;
+    public static final int SEARCH_MIN_CONTAINS_LENGTH = 3;
+
+    public static final String USERS_CACHE = "users";
+
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+    public static final String MERGE_PATCH_VALUE = "application/merge-patch+json";
 }
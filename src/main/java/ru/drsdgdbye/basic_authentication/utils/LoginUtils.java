@@ -0,0 +1,10 @@
+package ru.drsdgdbye.basic_authentication.utils;
+
+public final class LoginUtils {
+    /**
+     * Logins are stored lower-cased and without surrounding whitespace.
+     */
+    public static String normalize(String login) {
+        return login.toLowerCase().strip();
+    }
+}
@@ -0,0 +1,86 @@
+package ru.drsdgdbye.basic_authentication.utils;
+
+import io.micrometer.core.instrument.Counter;
+import ru.drsdgdbye.basic_authentication.security.exceptions.LookupFailedException;
+import ru.drsdgdbye.basic_authentication.security.exceptions.LookupTimeoutException;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent loads of the same key: the first caller runs the loader on its own thread,
+ * callers arriving while it runs wait for its result instead of loading again.
+ * <p>
+ * A waiting caller gets the result of a load that started before it arrived, so the load may have missed a write
+ * that committed in between. Writers call {@link #forget(Object)} after commit: callers arriving afterwards start
+ * a new load instead of joining one that may have read the old state. Nothing is kept once a load finished.
+ * <p>
+ * The leader gets the exception of its loader as is, every waiter gets its own {@link LookupFailedException}
+ * with it as the cause. Expected outcomes like a missing row are better returned as values.
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentMap<K, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+    private final long timeoutMillis;
+    private final Counter coalesced;
+
+    /**
+     * @param timeout   how long a caller waits for the load of another one.
+     * @param coalesced counts the callers that waited instead of loading.
+     */
+    public SingleFlight(Duration timeout, Counter coalesced) {
+        this.timeoutMillis = timeout.toMillis();
+        this.coalesced = coalesced;
+    }
+
+    /**
+     * @return the value loaded by this caller or by the one whose load of the key was in flight.
+     * @throws LookupTimeoutException if the load in flight did not finish within the timeout.
+     * @throws LookupFailedException  if the load in flight failed.
+     */
+    public V execute(K key, Supplier<V> loader) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> running = flights.putIfAbsent(key, flight);
+        if (running != null) {
+            coalesced.increment();
+            return await(running);
+        }
+
+        V value;
+        try {
+            value = loader.get();
+        } catch (RuntimeException | Error ex) {
+            flights.remove(key, flight);
+            flight.completeExceptionally(ex);
+            throw ex;
+        }
+        flights.remove(key, flight);
+        flight.complete(value);
+        return value;
+    }
+
+    /**
+     * Lets the following callers of the key start a new load, the load in flight still completes for its callers.
+     */
+    public void forget(K key) {
+        flights.remove(key);
+    }
+
+    private V await(CompletableFuture<V> flight) {
+        try {
+            return flight.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            throw new LookupTimeoutException();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new LookupTimeoutException();
+        } catch (ExecutionException ex) {
+            throw new LookupFailedException("coalesced load failed", ex.getCause());
+        }
+    }
+}
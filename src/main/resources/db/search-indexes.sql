@@ -0,0 +1,8 @@
+-- indexes of GET /search, postgresql only, run by hibernate after the schema is created
+-- prefix search: lower(column) like 'q%'
+create index if not exists ix_db_user_login_lower on db_user (lower(login) text_pattern_ops);
+create index if not exists ix_db_user_name_lower on db_user (lower(name) text_pattern_ops);
+-- substring search: lower(column) like '%q%'
+create extension if not exists pg_trgm;
+create index if not exists ix_db_user_login_trgm on db_user using gin (lower(login) gin_trgm_ops);
+create index if not exists ix_db_user_name_trgm on db_user using gin (lower(name) gin_trgm_ops);
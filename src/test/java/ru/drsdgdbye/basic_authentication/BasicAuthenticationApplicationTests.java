@@ -1,28 +1,63 @@
 package ru.drsdgdbye.basic_authentication;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import ru.drsdgdbye.basic_authentication.domain.Role;
 import ru.drsdgdbye.basic_authentication.domain.User;
+import ru.drsdgdbye.basic_authentication.repository.RoleRepository;
 import ru.drsdgdbye.basic_authentication.repository.UserRepository;
+import ru.drsdgdbye.basic_authentication.repository.UserRoleRow;
+import ru.drsdgdbye.basic_authentication.security.PasswordHasher;
+import ru.drsdgdbye.basic_authentication.security.exceptions.TooManyRequestsException;
+import ru.drsdgdbye.basic_authentication.service.RoleRegistry;
+import ru.drsdgdbye.basic_authentication.service.SignupQueue;
+import ru.drsdgdbye.basic_authentication.service.UserChangeFeed;
+import ru.drsdgdbye.basic_authentication.service.UserService;
+import ru.drsdgdbye.basic_authentication.service.dto.SignupStatusDto;
 import ru.drsdgdbye.basic_authentication.service.dto.SuccessDto;
 import ru.drsdgdbye.basic_authentication.service.dto.UserDto;
+import ru.drsdgdbye.basic_authentication.service.dto.UserExportDto;
+import ru.drsdgdbye.basic_authentication.service.dto.UserListDto;
+import ru.drsdgdbye.basic_authentication.service.dto.UserPatchDto;
+import ru.drsdgdbye.basic_authentication.utils.Constants;
 
+import javax.persistence.EntityManagerFactory;
 import javax.transaction.Transactional;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Consumer;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.hamcrest.Matchers.containsString;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+@ActiveProfiles("test")
 @AutoConfigureMockMvc
 @SpringBootTest(classes = BasicAuthenticationApplication.class)
 class BasicAuthenticationApplicationTests {
@@ -39,6 +74,22 @@ class BasicAuthenticationApplicationTests {
     @Autowired
     private UserRepository userRepository;
     @Autowired
+    private RoleRepository roleRepository;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private PasswordHasher passwordHasher;
+    @Autowired
+    private UserService userService;
+    @Autowired
+    private UserChangeFeed changeFeed;
+    @Autowired
+    private RoleRegistry roleRegistry;
+    @Autowired
+    private CacheManager cacheManager;
+    @Autowired
     private MockMvc restUserMockMvc;
     private User user;
 
@@ -60,6 +111,15 @@ class BasicAuthenticationApplicationTests {
         userAssertion.accept(userRepository.findAll());
     }
 
+    /**
+     * the password of a dto is never serialized, requests carry it explicitly
+     **/
+    private String json(UserDto userDto) {
+        ObjectNode json = objectMapper.valueToTree(userDto);
+        json.put("password", userDto.getPassword());
+        return json.toString();
+    }
+
     @Test
     @Transactional
     void testAddEndpointUser() throws Exception {
@@ -73,7 +133,7 @@ class BasicAuthenticationApplicationTests {
         restUserMockMvc.perform(
                 post("/add")
                         .contentType(MediaType.APPLICATION_JSON)
-                        .content(objectMapper.writeValueAsString(user)))
+                        .content(json(user)))
                 .andExpect(status().isCreated())
                 .andExpect(content().json(objectMapper.writeValueAsString(new SuccessDto())));
 
@@ -82,7 +142,7 @@ class BasicAuthenticationApplicationTests {
             User testUser = users.get(users.size() - 1);
             assertThat(testUser.getLogin()).isEqualTo(DEFAULT_LOGIN);
             assertThat(testUser.getName()).isEqualTo(DEFAULT_NAME);
-            assertThat(testUser.getPassword()).isEqualTo(DEFAULT_PASSWORD);
+            assertThat(passwordHasher.matches(DEFAULT_PASSWORD, testUser.getPassword())).isTrue();
             assertThat(testUser.getRoles()).isEqualTo(new HashSet<>());
         });
     }
@@ -102,7 +162,7 @@ class BasicAuthenticationApplicationTests {
         restUserMockMvc.perform(
                 put("/edit")
                         .contentType(MediaType.APPLICATION_JSON)
-                        .content(objectMapper.writeValueAsString(userDto)))
+                        .content(json(userDto)))
                 .andExpect(status().isOk())
                 .andExpect(content().json(objectMapper.writeValueAsString(new SuccessDto())));
 
@@ -110,11 +170,41 @@ class BasicAuthenticationApplicationTests {
             User testUser = users.get(users.size() - 1);
             assertThat(testUser.getLogin()).isEqualTo(DEFAULT_LOGIN);
             assertThat(testUser.getName()).isEqualTo(UPDATED_NAME);
-            assertThat(testUser.getPassword()).isEqualTo(UPDATED_PASSWORD);
+            assertThat(passwordHasher.matches(UPDATED_PASSWORD, testUser.getPassword())).isTrue();
             assertThat(testUser.getRoles()).isEqualTo(new HashSet<>());
         });
     }
 
+    @Test
+    @Transactional
+    void testEditEndpointUserWithoutPassword() throws Exception {
+        user.setPassword(passwordHasher.hash(DEFAULT_PASSWORD));
+        userRepository.saveAndFlush(user);
+        String storedPassword = user.getPassword();
+
+        UserDto userDto = new UserDto();
+        userDto.setId(user.getId());
+        userDto.setLogin(DEFAULT_LOGIN);
+        userDto.setName(UPDATED_NAME);
+        userDto.setRoles(new HashSet<>());
+        restUserMockMvc.perform(
+                post("/add")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(userDto)))
+                .andExpect(status().isBadRequest());
+        restUserMockMvc.perform(
+                put("/edit")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(userDto)))
+                .andExpect(status().isOk());
+
+        assertPersistedUsers(users -> {
+            User testUser = users.get(users.size() - 1);
+            assertThat(testUser.getName()).isEqualTo(UPDATED_NAME);
+            assertThat(testUser.getPassword()).isEqualTo(storedPassword);
+        });
+    }
+
     @Test
     @Transactional
     void testDeleteEndpointUser() throws Exception {
@@ -128,4 +218,575 @@ class BasicAuthenticationApplicationTests {
         assertPersistedUsers(users -> assertThat(users).hasSize(databaseSizeBeforeDelete - 1));
     }
 
+    @Test
+    @Transactional
+    void testDeleteEndpointUsersInBulk() throws Exception {
+        Role role = new Role();
+        role.setName("USER");
+        roleRepository.saveAndFlush(role);
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            User deleteUser = createEntity();
+            deleteUser.setLogin(DEFAULT_LOGIN + i);
+            deleteUser.addRole(role);
+            ids.add(userRepository.saveAndFlush(deleteUser).getId());
+        }
+        int databaseSizeBeforeDelete = userRepository.findAll().size();
+        ids.add(Long.MAX_VALUE);
+
+        restUserMockMvc.perform(delete("/delete")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(ids)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.deleted").value(3))
+                .andExpect(jsonPath("$.notFound.length()").value(1))
+                .andExpect(jsonPath("$.notFound[0]").value(Long.MAX_VALUE));
+
+        assertPersistedUsers(users -> assertThat(users).hasSize(databaseSizeBeforeDelete - 3));
+        assertThat(userRepository.findWithRoleIdsById(ids.get(0))).isEmpty();
+    }
+
+    @Test
+    @Transactional
+    void testListEndpointPagination() throws Exception {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            User pageUser = createEntity();
+            pageUser.setLogin(DEFAULT_LOGIN + i);
+            ids.add(userRepository.saveAndFlush(pageUser).getId());
+        }
+        Long secondId = ids.get(1);
+
+        restUserMockMvc.perform(get("/list")
+                .param("after", String.valueOf(ids.get(0) - 1))
+                .param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.users.length()").value(2))
+                .andExpect(jsonPath("$.users[1].login").value(DEFAULT_LOGIN + 1))
+                .andExpect(jsonPath("$.next").value(secondId));
+
+        restUserMockMvc.perform(get("/list")
+                .param("after", String.valueOf(secondId))
+                .param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.users.length()").value(1))
+                .andExpect(jsonPath("$.users[0].login").value(DEFAULT_LOGIN + 2))
+                .andExpect(jsonPath("$.next").doesNotExist());
+    }
+
+    @Test
+    @Transactional
+    void testSearchEndpointUsers() throws Exception {
+        List<Long> ids = new ArrayList<>();
+        for (String name : List.of("Anna Smith", "John Anderson", "Bob Stone", "Annie Hall")) {
+            User searchUser = createEntity();
+            searchUser.setLogin(name.toLowerCase().replace(' ', '_'));
+            searchUser.setName(name);
+            ids.add(userRepository.saveAndFlush(searchUser).getId());
+        }
+        String after = String.valueOf(ids.get(0) - 1);
+
+        restUserMockMvc.perform(get("/search").param("q", "ANN").param("after", after).param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.users.length()").value(1))
+                .andExpect(jsonPath("$.users[0].name").value("Anna Smith"))
+                .andExpect(jsonPath("$.next").value(ids.get(0)));
+
+        restUserMockMvc.perform(get("/search").param("q", "ANN").param("after", String.valueOf(ids.get(0))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.users.length()").value(1))
+                .andExpect(jsonPath("$.users[0].name").value("Annie Hall"))
+                .andExpect(jsonPath("$.next").doesNotExist());
+
+        restUserMockMvc.perform(get("/search").param("q", "and").param("mode", "CONTAINS").param("after", after))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.users.length()").value(1))
+                .andExpect(jsonPath("$.users[0].name").value("John Anderson"));
+
+        restUserMockMvc.perform(get("/search").param("q", "n_s").param("mode", "CONTAINS").param("after", after))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.users.length()").value(0));
+
+        restUserMockMvc.perform(get("/search").param("q", "an").param("mode", "CONTAINS"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.success").value(false));
+    }
+
+    @Test
+    @Transactional
+    void testAddBatchEndpointUsers() throws Exception {
+        userRepository.saveAndFlush(user);
+        int databaseSizeBeforeCreate = userRepository.findAll().size();
+
+        String body = String.join("\n",
+                "{\"login\":\"janedoe\",\"name\":\"jane doe\",\"password\":\"" + DEFAULT_PASSWORD + "\",\"roles\":[]}",
+                "{\"login\":\"" + DEFAULT_LOGIN.toUpperCase() + "\",\"name\":\"" + DEFAULT_NAME + "\",\"password\":\"" + DEFAULT_PASSWORD + "\",\"roles\":[]}",
+                "{\"login\":\"bobdoe\",\"name\":\"bob doe\",\"password\":\"weak\",\"roles\":[]}");
+        restUserMockMvc.perform(
+                post("/add/batch")
+                        .contentType("application/x-ndjson")
+                        .content(body))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0].status").value("CREATED"))
+                .andExpect(jsonPath("$[0].id").isNumber())
+                .andExpect(jsonPath("$[1].status").value("ALREADY_EXISTS"))
+                .andExpect(jsonPath("$[2].status").value("INVALID"))
+                .andExpect(jsonPath("$[2].errors.length()").value(1));
+
+        assertPersistedUsers(users -> assertThat(users).hasSize(databaseSizeBeforeCreate + 1));
+    }
+
+    @Test
+    @Transactional
+    void testAddEndpointUserWithNullRole() throws Exception {
+        int databaseSizeBeforeCreate = userRepository.findAll().size();
+
+        restUserMockMvc.perform(
+                post("/add")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"" + DEFAULT_LOGIN + "\",\"name\":\"" + DEFAULT_NAME + "\",\"password\":\""
+                                + DEFAULT_PASSWORD + "\",\"roles\":[null]}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.success").value(false));
+
+        assertPersistedUsers(users -> assertThat(users).hasSize(databaseSizeBeforeCreate));
+    }
+
+    @Test
+    @Transactional
+    void testAddEndpointUserWithUnknownRole() throws Exception {
+        int databaseSizeBeforeCreate = userRepository.findAll().size();
+
+        UserDto user = new UserDto();
+        user.setLogin(DEFAULT_LOGIN);
+        user.setName(DEFAULT_NAME);
+        user.setPassword(DEFAULT_PASSWORD);
+        user.setRoles(Set.of(Long.MAX_VALUE));
+        restUserMockMvc.perform(
+                post("/add")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json(user)))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.success").value(false));
+
+        assertPersistedUsers(users -> assertThat(users).hasSize(databaseSizeBeforeCreate));
+    }
+
+    @Test
+    @Transactional
+    void testGetEndpointUserInOneStatement() throws Exception {
+        Role role = new Role();
+        role.setName("USER");
+        user.addRole(roleRepository.saveAndFlush(role));
+        userRepository.saveAndFlush(user);
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        restUserMockMvc.perform(get("/get/{id}", user.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.login").value(DEFAULT_LOGIN))
+                .andExpect(jsonPath("$.roles[0]").value(role.getId()))
+                .andExpect(jsonPath("$.password").doesNotExist());
+
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+    }
+
+    @Test
+    @Transactional
+    void testGetEndpointUserIsCachedUntilEdit() throws Exception {
+        userRepository.saveAndFlush(user);
+        restUserMockMvc.perform(get("/get/{id}", user.getId()))
+                .andExpect(status().isOk());
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        restUserMockMvc.perform(get("/get/{id}", user.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name").value(DEFAULT_NAME));
+        assertThat(statistics.getPrepareStatementCount()).isZero();
+
+        UserDto userDto = new UserDto();
+        userDto.setId(user.getId());
+        userDto.setLogin(DEFAULT_LOGIN);
+        userDto.setName(UPDATED_NAME);
+        userDto.setPassword(UPDATED_PASSWORD);
+        userDto.setRoles(new HashSet<>());
+        restUserMockMvc.perform(
+                put("/edit")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json(userDto)))
+                .andExpect(status().isOk());
+
+        restUserMockMvc.perform(get("/get/{id}", user.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name").value(UPDATED_NAME));
+        assertThat(meterRegistry.get("cache.gets").tag("cache", Constants.USERS_CACHE).tag("result", "hit")
+                .functionCounter().count()).isPositive();
+    }
+
+    @Test
+    void testBulkDeleteEvictsOnlyDeletedUsers() {
+        User kept = userRepository.saveAndFlush(createEntity());
+        User deleted = createEntity();
+        deleted.setLogin(DEFAULT_LOGIN + "deleted");
+        userRepository.saveAndFlush(deleted);
+        try {
+            userService.getUser(kept.getId());
+            userService.getUser(deleted.getId());
+
+            userService.deleteUsers(List.of(deleted.getId()));
+
+            Cache users = cacheManager.getCache(Constants.USERS_CACHE);
+            assertThat(users.get(kept.getId())).isNotNull();
+            assertThat(users.get(deleted.getId())).isNull();
+        } finally {
+            userService.deleteUsers(List.of(kept.getId(), deleted.getId()));
+        }
+    }
+
+    @Test
+    @Transactional
+    void testEditWritesOnlyChangedRoles() {
+        List<Role> roles = new ArrayList<>();
+        for (String name : List.of("READER", "WRITER", "AUDITOR")) {
+            Role role = new Role();
+            role.setName(name);
+            roles.add(roleRepository.saveAndFlush(role));
+        }
+        user.setPassword(passwordHasher.hash(DEFAULT_PASSWORD));
+        user.addRole(roles.get(0));
+        user.addRole(roles.get(1));
+        userRepository.saveAndFlush(user);
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        UserDto userDto = new UserDto();
+        userDto.setId(user.getId());
+        userDto.setLogin(DEFAULT_LOGIN);
+        userDto.setName(DEFAULT_NAME);
+        userDto.setPassword(DEFAULT_PASSWORD);
+        userDto.setRoles(Set.of(roles.get(1).getId(), roles.get(2).getId()));
+        userService.updateUser(userDto);
+        userRepository.flush();
+
+        assertThat(statistics.getCollectionRecreateCount()).isZero();
+        assertThat(statistics.getCollectionRemoveCount()).isZero();
+        assertThat(statistics.getCollectionUpdateCount()).isEqualTo(1);
+        //the version bump of the changed roles
+        assertThat(statistics.getEntityUpdateCount()).isEqualTo(1);
+        assertThat(user.getVersion()).isEqualTo(1);
+        assertThat(userRepository.findWithRoleIdsById(user.getId()))
+                .extracting(UserRoleRow::getRoleId)
+                .containsExactlyInAnyOrder(roles.get(1).getId(), roles.get(2).getId());
+    }
+
+    @Test
+    @Transactional
+    void testPatchEndpointUpdatesOnlyName() throws Exception {
+        user.setPassword(passwordHasher.hash(DEFAULT_PASSWORD));
+        userRepository.saveAndFlush(user);
+        String storedPassword = user.getPassword();
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        restUserMockMvc.perform(
+                patch("/edit/{id}", user.getId())
+                        .contentType(Constants.MERGE_PATCH_VALUE)
+                        .content("{\"name\":\"" + UPDATED_NAME + "\"}"))
+                .andExpect(status().isOk())
+                .andExpect(content().json(objectMapper.writeValueAsString(new SuccessDto())));
+        userRepository.flush();
+
+        assertThat(statistics.getEntityUpdateCount()).isEqualTo(1);
+        assertThat(statistics.getCollectionUpdateCount()).isZero();
+        assertPersistedUsers(users -> {
+            User testUser = users.get(users.size() - 1);
+            assertThat(testUser.getName()).isEqualTo(UPDATED_NAME);
+            assertThat(testUser.getPassword()).isEqualTo(storedPassword);
+        });
+    }
+
+    @Test
+    @Transactional
+    void testPatchEndpointValidatesOnlyPatchedFields() throws Exception {
+        userRepository.saveAndFlush(user);
+
+        restUserMockMvc.perform(
+                patch("/edit/{id}", user.getId())
+                        .contentType(Constants.MERGE_PATCH_VALUE)
+                        .content("{\"password\":\"weak\"}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.success").value(false))
+                .andExpect(jsonPath("$.errors.length()").value(1));
+
+        restUserMockMvc.perform(
+                patch("/edit/{id}", user.getId())
+                        .contentType(Constants.MERGE_PATCH_VALUE)
+                        .content("{\"login\":\"janedoe\"}"))
+                .andExpect(status().isBadRequest());
+
+        restUserMockMvc.perform(
+                patch("/edit/{id}", Long.MAX_VALUE)
+                        .contentType(Constants.MERGE_PATCH_VALUE)
+                        .content("{\"name\":\"" + UPDATED_NAME + "\"}"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @Transactional
+    void testGetEndpointAnswersMatchingETagWithNotModified() throws Exception {
+        userRepository.saveAndFlush(user);
+
+        restUserMockMvc.perform(get("/get/{id}", user.getId()))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "W/\"0\""))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT))
+                .andExpect(jsonPath("$.version").value(0));
+        restUserMockMvc.perform(get("/get/{id}", user.getId()).header(HttpHeaders.IF_NONE_MATCH, "W/\"0\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        restUserMockMvc.perform(
+                patch("/edit/{id}", user.getId())
+                        .contentType(Constants.MERGE_PATCH_VALUE)
+                        .header(HttpHeaders.IF_MATCH, "W/\"0\"")
+                        .content("{\"name\":\"" + UPDATED_NAME + "\"}"))
+                .andExpect(status().isOk());
+        userRepository.flush();
+
+        restUserMockMvc.perform(get("/get/{id}", user.getId()).header(HttpHeaders.IF_NONE_MATCH, "W/\"0\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "W/\"1\""))
+                .andExpect(jsonPath("$.name").value(UPDATED_NAME));
+    }
+
+    @Test
+    @Transactional
+    void testEditWithStaleVersionIsRejected() throws Exception {
+        userRepository.saveAndFlush(user);
+        user.setName(UPDATED_NAME);
+        userRepository.flush();
+
+        restUserMockMvc.perform(
+                patch("/edit/{id}", user.getId())
+                        .contentType(Constants.MERGE_PATCH_VALUE)
+                        .header(HttpHeaders.IF_MATCH, "\"0\"")
+                        .content("{\"name\":\"" + DEFAULT_NAME + "\"}"))
+                .andExpect(status().isConflict());
+
+        UserDto userDto = new UserDto(user);
+        userDto.setPassword(DEFAULT_PASSWORD);
+        userDto.setName(DEFAULT_NAME);
+        userDto.setVersion(0L);
+        restUserMockMvc.perform(
+                put("/edit")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json(userDto)))
+                .andExpect(status().isConflict());
+
+        assertPersistedUsers(users -> assertThat(users.get(users.size() - 1).getName()).isEqualTo(UPDATED_NAME));
+    }
+
+    @Test
+    @Transactional
+    void testListEndpointETagChangesWithUsersOnPage() throws Exception {
+        userRepository.saveAndFlush(user);
+
+        String eTag = restUserMockMvc.perform(get("/list"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertThat(eTag).startsWith("W/\"");
+        restUserMockMvc.perform(get("/list").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified());
+
+        user.setName(UPDATED_NAME);
+        userRepository.flush();
+
+        restUserMockMvc.perform(get("/list").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.users[-1:].name").value(UPDATED_NAME));
+    }
+
+    /**
+     * not transactional, the stream is written on another thread that has to see the user
+     **/
+    @Test
+    void testListEndpointsNegotiateFormat() throws Exception {
+        userRepository.saveAndFlush(user);
+        try {
+            assertListEndpointsNegotiateFormat();
+        } finally {
+            userRepository.delete(user);
+        }
+    }
+
+    private void assertListEndpointsNegotiateFormat() throws Exception {
+
+        byte[] cbor = restUserMockMvc.perform(get("/list").accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
+        UserListDto page = new ObjectMapper(new CBORFactory()).readValue(cbor, UserListDto.class);
+        assertThat(page.getUsers()).extracting("login").contains(DEFAULT_LOGIN);
+
+        MvcResult stream = restUserMockMvc.perform(get("/list/stream").accept(Constants.NDJSON_VALUE))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String lines = restUserMockMvc.perform(asyncDispatch(stream))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(Constants.NDJSON_VALUE))
+                .andReturn().getResponse().getContentAsString();
+        assertThat(lines).endsWith("\n");
+        assertThat(lines.split("\n")).hasSize(userRepository.findAll().size())
+                .allMatch(line -> line.startsWith("{") && line.endsWith("}"))
+                .anyMatch(line -> line.contains("\"login\":\"" + DEFAULT_LOGIN + "\""));
+    }
+
+    /**
+     * not transactional, the export is written on another thread that has to see the user
+     **/
+    @Test
+    void testExportEndpointStreamsUsersWithRoles() throws Exception {
+        Role exporter = new Role();
+        exporter.setName("EXPORTER");
+        Role role = roleRepository.save(exporter);
+        UserDto userDto = new UserDto(user);
+        userDto.setRoles(Set.of(role.getId()));
+        userService.createUser(userDto);
+        Long id = userRepository.findOneByLogin(DEFAULT_LOGIN).orElseThrow().getId();
+        try {
+            MvcResult export = restUserMockMvc.perform(get("/export"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            String lines = restUserMockMvc.perform(asyncDispatch(export))
+                    .andExpect(status().isOk())
+                    .andExpect(content().contentType(Constants.NDJSON_VALUE))
+                    .andReturn().getResponse().getContentAsString();
+
+            List<UserExportDto> users = new ArrayList<>();
+            for (String line : lines.split("\n")) {
+                users.add(objectMapper.readValue(line, UserExportDto.class));
+            }
+            assertThat(users).hasSize((int) userRepository.count());
+            assertThat(users).filteredOn(exported -> exported.getId().equals(id)).hasSize(1)
+                    .allSatisfy(exported -> {
+                        assertThat(exported.getLogin()).isEqualTo(DEFAULT_LOGIN);
+                        assertThat(exported.getRoles()).containsExactly(role.getId());
+                    });
+            assertThat(lines).doesNotContain(DEFAULT_PASSWORD);
+        } finally {
+            userService.deleteUser(id);
+            roleRepository.delete(role);
+        }
+    }
+
+    /**
+     * not transactional, changes are published after commit
+     **/
+    @Test
+    void testChangesEndpointStreamsCommittedChanges() throws Exception {
+        MvcResult changes = restUserMockMvc.perform(get("/changes").param("after", changeFeed.lastEventId()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        userService.createUser(new UserDto(user));
+        Long id = userRepository.findOneByLogin(DEFAULT_LOGIN).orElseThrow().getId();
+        UserPatchDto patch = new UserPatchDto();
+        patch.setName(UPDATED_NAME);
+        userService.patchUser(id, patch, null);
+        userService.deleteUser(id);
+
+        String events = "";
+        for (int i = 0; i < 500 && !events.contains("event:DELETED"); i++) {
+            Thread.sleep(10);
+            events = changes.getResponse().getContentAsString();
+        }
+        assertThat(events).contains("event:CREATED", "\"id\":" + id + ",\"kind\":\"CREATED\",\"version\":0");
+        assertThat(events).contains("event:UPDATED", "\"id\":" + id + ",\"kind\":\"UPDATED\",\"version\":1");
+        assertThat(events).contains("event:DELETED", "\"id\":" + id + ",\"kind\":\"DELETED\"");
+        assertThat(events.indexOf("event:CREATED")).isLessThan(events.indexOf("event:UPDATED"));
+    }
+
+    /**
+     * not transactional, the signup is written by the writer thread of the queue
+     **/
+    @Test
+    void testAddAsyncEndpointQueuesSignup() throws Exception {
+        UserDto userDto = new UserDto(user);
+        MvcResult accepted = restUserMockMvc.perform(
+                post("/add/async")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json(userDto)))
+                .andExpect(status().isAccepted())
+                .andExpect(header().exists(HttpHeaders.LOCATION))
+                .andExpect(jsonPath("$.login").value(DEFAULT_LOGIN))
+                .andReturn();
+        String location = accepted.getResponse().getHeader(HttpHeaders.LOCATION);
+
+        try {
+            restUserMockMvc.perform(
+                    post("/add/async")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(json(userDto)))
+                    .andExpect(status().isConflict());
+
+            SignupStatusDto signup = null;
+            for (int i = 0; i < 500 && (signup == null || signup.getStatus() == SignupStatusDto.Status.QUEUED); i++) {
+                Thread.sleep(10);
+                String body = restUserMockMvc.perform(get(location))
+                        .andExpect(status().isOk())
+                        .andReturn().getResponse().getContentAsString();
+                signup = objectMapper.readValue(body, SignupStatusDto.class);
+            }
+            assertThat(signup.getStatus()).isEqualTo(SignupStatusDto.Status.CREATED);
+            assertThat(signup.getId()).isEqualTo(userRepository.findOneByLogin(DEFAULT_LOGIN).orElseThrow().getId());
+            restUserMockMvc.perform(get("/add/status/{trackingId}", "unknown"))
+                    .andExpect(status().isNotFound());
+        } finally {
+            userRepository.findOneByLogin(DEFAULT_LOGIN).ifPresent(created -> userService.deleteUser(created.getId()));
+        }
+    }
+
+    @Test
+    void testSignupQueueFlushesOnShutdown() {
+        SignupQueue queue = new SignupQueue(userService, roleRegistry, new SimpleMeterRegistry(), 10, 10,
+                Duration.ofSeconds(1), Duration.ofMinutes(1), 100, Duration.ofSeconds(30));
+        queue.start();
+        UserDto john = new UserDto(user);
+        UserDto jane = new UserDto(user);
+        jane.setLogin("janedoe");
+        List<SignupStatusDto> signups = List.of(queue.enqueue(john), queue.enqueue(jane));
+
+        try {
+            queue.shutdown();
+
+            UserDto late = new UserDto(user);
+            late.setLogin("latedoe");
+            assertThatThrownBy(() -> queue.enqueue(late)).isInstanceOf(TooManyRequestsException.class);
+            assertThat(signups).allSatisfy(signup -> {
+                SignupStatusDto status = queue.getStatus(signup.getTrackingId());
+                assertThat(status.getStatus()).isEqualTo(SignupStatusDto.Status.CREATED);
+                assertThat(userRepository.findOneByLogin(signup.getLogin())).isPresent();
+            });
+        } finally {
+            List.of(DEFAULT_LOGIN, "janedoe").forEach(login -> userRepository.findOneByLogin(login)
+                    .ifPresent(created -> userService.deleteUser(created.getId())));
+        }
+    }
+
+    @Test
+    @Transactional
+    void testMetricsEndpoint() throws Exception {
+        userRepository.saveAndFlush(user);
+        restUserMockMvc.perform(get("/get/{id}", user.getId()))
+                .andExpect(status().isOk());
+
+        restUserMockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("http_server_requests_seconds{")))
+                .andExpect(content().string(containsString("quantile=\"0.999\"")))
+                .andExpect(content().string(containsString("users_service_seconds_count{")))
+                .andExpect(content().string(containsString("hibernate_statements_total")));
+    }
 }
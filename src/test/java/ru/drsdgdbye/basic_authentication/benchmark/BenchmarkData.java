@@ -0,0 +1,50 @@
+package ru.drsdgdbye.basic_authentication.benchmark;
+
+import ru.drsdgdbye.basic_authentication.domain.Role;
+import ru.drsdgdbye.basic_authentication.domain.User;
+import ru.drsdgdbye.basic_authentication.service.dto.UserDto;
+import ru.drsdgdbye.basic_authentication.service.dto.UserWithoutRolesDto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Fixtures shared by the benchmarks that do not need a database.
+ */
+final class BenchmarkData {
+    static final int ROLES_PER_USER = 3;
+
+    static UserDto userDto(long id) {
+        UserDto userDto = new UserDto();
+        userDto.setId(id);
+        userDto.setLogin("user" + id);
+        userDto.setName("user number " + id);
+        userDto.setPassword("Passw0rd" + id);
+        userDto.setRoles(Set.of(1L, 2L, 3L));
+        return userDto;
+    }
+
+    static User user(long id) {
+        User user = new User();
+        user.setId(id);
+        user.setLogin("user" + id);
+        user.setName("user number " + id);
+        user.setPassword("Passw0rd" + id);
+        for (long roleId = 1; roleId <= ROLES_PER_USER; roleId++) {
+            Role role = new Role();
+            role.setId(roleId);
+            role.setName("ROLE" + roleId);
+            user.addRole(role);
+        }
+        return user;
+    }
+
+    static List<UserWithoutRolesDto> userList(int size) {
+        List<UserWithoutRolesDto> users = new ArrayList<>(size);
+        for (long id = 1; id <= size; id++) {
+            users.add(new UserWithoutRolesDto(id, "user" + id, "user number " + id, 0L));
+        }
+        return users;
+    }
+}
@@ -0,0 +1,87 @@
+package ru.drsdgdbye.basic_authentication.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.drsdgdbye.basic_authentication.BasicAuthenticationApplication;
+import ru.drsdgdbye.basic_authentication.domain.Role;
+import ru.drsdgdbye.basic_authentication.repository.RoleRepository;
+import ru.drsdgdbye.basic_authentication.service.UserService;
+import ru.drsdgdbye.basic_authentication.service.dto.UserDto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Regression benchmark for {@link UserService#createUser(UserDto)} into a role that already has
+ * {@code members} users. The cost must not grow with the membership of the role.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CreateUserBenchmark {
+    private static final int SEED_BATCH_SIZE = 10_000;
+
+    @Param({"10", "1000", "100000", "1000000"})
+    private int members;
+
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+    private Long roleId;
+    private long sequence;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(BasicAuthenticationApplication.class)
+                .web(WebApplicationType.NONE)
+                .profiles("test")
+                .run();
+        userService = context.getBean(UserService.class);
+
+        Role role = new Role();
+        role.setName("USER");
+        roleId = context.getBean(RoleRepository.class).save(role).getId();
+
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        for (int from = 0; from < members; from += SEED_BATCH_SIZE) {
+            List<Object[]> users = new ArrayList<>(SEED_BATCH_SIZE);
+            for (int i = from; i < Math.min(members, from + SEED_BATCH_SIZE); i++) {
+                users.add(new Object[]{"member" + i, "Passw0rd" + i, "member " + i});
+            }
+            jdbcTemplate.batchUpdate("insert into db_user (id, login, password, name, version) " +
+                    "values (nextval('db_user_seq'), ?, ?, ?, 0)", users);
+        }
+        jdbcTemplate.update("insert into db_user_role (user_id, role_id) select id, ? from db_user", roleId);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void createUser() {
+        UserDto userDto = new UserDto();
+        userDto.setLogin("new" + sequence++);
+        userDto.setName("new user");
+        userDto.setPassword("Passw0rd");
+        userDto.setRoles(Set.of(roleId));
+        userService.createUser(userDto);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CreateUserBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
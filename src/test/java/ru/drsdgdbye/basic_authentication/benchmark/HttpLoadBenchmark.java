@@ -0,0 +1,187 @@
+package ru.drsdgdbye.basic_authentication.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.drsdgdbye.basic_authentication.BasicAuthenticationApplication;
+import ru.drsdgdbye.basic_authentication.service.dto.UserDto;
+import ru.drsdgdbye.basic_authentication.utils.Constants;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end load test: the whole application on a random port, with the in-memory database of the test profile
+ * in postgresql mode, driven over http by a mixed workload of concurrent clients:
+ * <ul>
+ *     <li>signup bursts, {@code POST /add} of new logins,</li>
+ *     <li>hot-key reads, {@code GET /get/:id} of the first {@code hotUsers} users,</li>
+ *     <li>scans, {@code GET /list} pages from random positions,</li>
+ *     <li>edits, {@code PATCH /edit/:id} of the name of a random user,</li>
+ *     <li>deletes, {@code DELETE /delete/:id} walking down from the last seeded user.</li>
+ * </ul>
+ * Throughput and the p50/p99/p999 latencies are reported per operation. The number of clients of each operation is
+ * set with {@code -tg}, in the order above, and the server with system properties of the fork, e.g.
+ * {@code mvn -Pbenchmark verify -Djmh.include=HttpLoadBenchmark -Djmh.args="-tg 4,16,2,2,1 -jvmArgsAppend -Dapp.password.cost=10"}.
+ * The results are written to {@code target/jmh-result.json} to compare between builds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class HttpLoadBenchmark {
+    private static final int SEED_BATCH_SIZE = 10_000;
+    private static final Set<Integer> SIGNUP_STATUSES = Set.of(HttpStatus.CREATED.value(), HttpStatus.TOO_MANY_REQUESTS.value());
+    private static final Set<Integer> READ_STATUSES = Set.of(HttpStatus.OK.value());
+    private static final Set<Integer> WRITE_STATUSES = Set.of(HttpStatus.OK.value(), HttpStatus.NO_CONTENT.value(),
+            HttpStatus.NOT_FOUND.value(), HttpStatus.CONFLICT.value());
+
+    @Param({"100000"})
+    private int users;
+
+    @Param({"100"})
+    private int hotUsers;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private ObjectMapper objectMapper;
+    private String baseUrl;
+    private long[] ids;
+    private final AtomicLong signups = new AtomicLong();
+    private final AtomicInteger deletes = new AtomicInteger();
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(BasicAuthenticationApplication.class)
+                .profiles("test")
+                .properties("server.port=0")
+                .run();
+        baseUrl = "http://localhost:" + ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+        objectMapper = context.getBean(ObjectMapper.class);
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .build();
+
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        for (int from = 0; from < users; from += SEED_BATCH_SIZE) {
+            List<Object[]> rows = new ArrayList<>(SEED_BATCH_SIZE);
+            for (int i = from; i < Math.min(users, from + SEED_BATCH_SIZE); i++) {
+                rows.add(new Object[]{"user" + i, "Passw0rd" + i, "user number " + i});
+            }
+            jdbcTemplate.batchUpdate("insert into db_user (id, login, password, name, version) " +
+                    "values (nextval('db_user_seq'), ?, ?, ?, 0)", rows);
+        }
+        ids = jdbcTemplate.queryForList("select id from db_user order by id", Long.class).stream()
+                .mapToLong(Long::longValue)
+                .toArray();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public int signup() throws Exception {
+        UserDto user = new UserDto();
+        user.setLogin("signup" + signups.incrementAndGet());
+        user.setName("signed up user");
+        user.setPassword("Passw0rd");
+        user.setRoles(new HashSet<>());
+        return send(HttpRequest.newBuilder(uri("/add"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json(user))), SIGNUP_STATUSES);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(8)
+    public int getHot() throws Exception {
+        long id = ids[ThreadLocalRandom.current().nextInt(Math.min(hotUsers, ids.length))];
+        return send(HttpRequest.newBuilder(uri("/get/" + id)).GET(), READ_STATUSES);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public int list() throws Exception {
+        long after = ids[ThreadLocalRandom.current().nextInt(ids.length)];
+        return send(HttpRequest.newBuilder(uri("/list?after=" + after + "&limit=" + Constants.DEFAULT_PAGE_SIZE)).GET(), READ_STATUSES);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public int edit() throws Exception {
+        long id = ids[ThreadLocalRandom.current().nextInt(ids.length)];
+        return send(HttpRequest.newBuilder(uri("/edit/" + id))
+                .header("Content-Type", Constants.MERGE_PATCH_VALUE)
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"name\":\"edited " + System.nanoTime() % 1_000_000 + "\"}")),
+                WRITE_STATUSES);
+    }
+
+    /**
+     * deletes the seeded users from the last one down, the hot users are never reached in a run of sensible length
+     **/
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public int delete() throws Exception {
+        int index = Math.max(hotUsers, ids.length - 1 - deletes.getAndIncrement());
+        return send(HttpRequest.newBuilder(uri("/delete/" + ids[index])).DELETE(), WRITE_STATUSES);
+    }
+
+    private URI uri(String path) {
+        return URI.create(baseUrl + path);
+    }
+
+    private String json(UserDto user) throws JsonProcessingException {
+        ObjectNode json = objectMapper.valueToTree(user);
+        json.put("password", user.getPassword());
+        return objectMapper.writeValueAsString(json);
+    }
+
+    /**
+     * @return the status, the body is read completely like a client would.
+     * @throws IllegalStateException on an unexpected status, server errors fail the run instead of being timed.
+     */
+    private int send(HttpRequest.Builder builder, Set<Integer> expected) throws IOException, InterruptedException {
+        HttpRequest request = builder.build();
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (!expected.contains(response.statusCode())) {
+            throw new IllegalStateException(request.method() + " " + request.uri()
+                    + " answered " + response.statusCode() + ": " + new String(response.body()));
+        }
+        return response.statusCode();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(HttpLoadBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
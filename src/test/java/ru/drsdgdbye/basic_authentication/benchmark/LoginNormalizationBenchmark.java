@@ -0,0 +1,26 @@
+package ru.drsdgdbye.basic_authentication.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.drsdgdbye.basic_authentication.utils.LoginUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LoginUtils#normalize(String)} as called by {@code isUserExists}, {@code createUser} and the import.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoginNormalizationBenchmark {
+
+    @Param({"johndoe", "  John.Doe  ", "ДЖОН_ДОУ"})
+    private String login;
+
+    @Benchmark
+    public String normalize() {
+        return LoginUtils.normalize(login);
+    }
+}
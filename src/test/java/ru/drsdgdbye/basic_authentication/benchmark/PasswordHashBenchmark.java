@@ -0,0 +1,58 @@
+package ru.drsdgdbye.basic_authentication.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import ru.drsdgdbye.basic_authentication.security.PasswordHasher;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calibrates {@code app.password.cost} for {@link PasswordHasher} on the current host. Every step of the cost doubles
+ * the time of one hash. Run the main method with {@code -Dtarget.ms=<latency>} to print the highest cost whose
+ * hash stays within the target, on the production host and with the production jvm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class PasswordHashBenchmark {
+    private static final String PASSWORD = "Passw0rd";
+
+    @Param({"8", "9", "10", "11", "12", "13", "14"})
+    private int cost;
+
+    private BCryptPasswordEncoder encoder;
+
+    @Setup
+    public void setUp() {
+        encoder = new BCryptPasswordEncoder(cost);
+    }
+
+    @Benchmark
+    public String hash() {
+        return encoder.encode(PASSWORD);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        double targetMs = Double.parseDouble(System.getProperty("target.ms", "50"));
+        Collection<RunResult> results = new Runner(new OptionsBuilder()
+                .include(PasswordHashBenchmark.class.getSimpleName())
+                .build()).run();
+
+        results.stream()
+                .filter(result -> result.getPrimaryResult().getScore() <= targetMs)
+                .max(Comparator.comparingInt(result -> Integer.parseInt(result.getParams().getParam("cost"))))
+                .ifPresentOrElse(
+                        result -> System.out.printf("app.password.cost=%s (%.1f ms per hash, target %.1f ms)%n",
+                                result.getParams().getParam("cost"), result.getPrimaryResult().getScore(), targetMs),
+                        () -> System.out.printf("no cost hashes within %.1f ms, the minimum is 4%n", targetMs));
+    }
+}
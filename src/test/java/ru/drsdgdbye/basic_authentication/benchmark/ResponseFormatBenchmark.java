@@ -0,0 +1,101 @@
+package ru.drsdgdbye.basic_authentication.benchmark;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import ru.drsdgdbye.basic_authentication.service.dto.UserListDto;
+import ru.drsdgdbye.basic_authentication.service.dto.UserWithoutRolesDto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serialization time of one {@code GET /list} page in every format the endpoints negotiate, written as the
+ * response would be, optionally through gzip like {@code server.compression} does. The main method prints the
+ * bytes on the wire for each format before running.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseFormatBenchmark {
+
+    public enum Format {
+        JSON, SMILE, CBOR, NDJSON
+    }
+
+    @Param({"1000"})
+    private int pageSize;
+
+    @Param({"JSON", "SMILE", "CBOR", "NDJSON"})
+    private Format format;
+
+    @Param({"false", "true"})
+    private boolean gzip;
+
+    private ObjectMapper objectMapper;
+    private UserListDto page;
+
+    @Setup
+    public void setUp() {
+        objectMapper = objectMapper(format);
+        page = new UserListDto(BenchmarkData.userList(pageSize), (long) pageSize);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return write(objectMapper, format, page, gzip);
+    }
+
+    private static ObjectMapper objectMapper(Format format) {
+        switch (format) {
+            case SMILE:
+                return Jackson2ObjectMapperBuilder.json().factory(new SmileFactory()).build();
+            case CBOR:
+                return Jackson2ObjectMapperBuilder.json().factory(new CBORFactory()).build();
+            default:
+                return Jackson2ObjectMapperBuilder.json().build();
+        }
+    }
+
+    private static byte[] write(ObjectMapper objectMapper, Format format, UserListDto page, boolean gzip) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = gzip ? new GZIPOutputStream(bytes) : bytes) {
+            if (format != Format.NDJSON) {
+                objectMapper.writeValue(out, page);
+            } else {
+                try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                    generator.setRootValueSeparator(null);
+                    for (UserWithoutRolesDto user : page.getUsers()) {
+                        generator.writeObject(user);
+                        generator.writeRaw('\n');
+                    }
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        UserListDto page = new UserListDto(BenchmarkData.userList(1000), 1000L);
+        for (Format format : Format.values()) {
+            ObjectMapper objectMapper = objectMapper(format);
+            System.out.printf("%-6s %8d bytes, %8d gzipped%n", format,
+                    write(objectMapper, format, page, false).length, write(objectMapper, format, page, true).length);
+        }
+        new Runner(new OptionsBuilder()
+                .include(ResponseFormatBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,65 @@
+package ru.drsdgdbye.basic_authentication.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import ru.drsdgdbye.basic_authentication.service.dto.UserDto;
+import ru.drsdgdbye.basic_authentication.service.dto.UserWithoutRolesDto;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson (de)serialization of a single {@link UserDto} and of a list of {@link UserWithoutRolesDto},
+ * with an {@link ObjectMapper} built the way Spring Boot builds it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserJsonBenchmark {
+    private static final TypeReference<List<UserWithoutRolesDto>> USER_LIST = new TypeReference<>() {
+    };
+
+    @Param({"10000"})
+    private int listSize;
+
+    private ObjectMapper objectMapper;
+    private UserDto user;
+    private byte[] userJson;
+    private List<UserWithoutRolesDto> users;
+    private byte[] usersJson;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        user = BenchmarkData.userDto(1);
+        userJson = objectMapper.writeValueAsBytes(user);
+        users = BenchmarkData.userList(listSize);
+        usersJson = objectMapper.writeValueAsBytes(users);
+    }
+
+    @Benchmark
+    public byte[] serializeUser() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(user);
+    }
+
+    @Benchmark
+    public UserDto deserializeUser() throws Exception {
+        return objectMapper.readValue(userJson, UserDto.class);
+    }
+
+    @Benchmark
+    public byte[] serializeUserList() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(users);
+    }
+
+    @Benchmark
+    public List<UserWithoutRolesDto> deserializeUserList() throws Exception {
+        return objectMapper.readValue(usersJson, USER_LIST);
+    }
+}
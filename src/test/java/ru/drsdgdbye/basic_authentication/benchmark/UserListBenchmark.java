@@ -0,0 +1,83 @@
+package ru.drsdgdbye.basic_authentication.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.drsdgdbye.basic_authentication.BasicAuthenticationApplication;
+import ru.drsdgdbye.basic_authentication.repository.UserRepository;
+import ru.drsdgdbye.basic_authentication.service.dto.UserWithoutRolesDto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares reading the user list through managed {@code User} entities with the DTO projection query.
+ * Run {@link #main(String[])} to get latency together with the GC profiler's allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class UserListBenchmark {
+
+    @Param({"100000"})
+    private int users;
+
+    private ConfigurableApplicationContext context;
+    private UserRepository userRepository;
+    private TransactionTemplate transactionTemplate;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(BasicAuthenticationApplication.class)
+                .web(WebApplicationType.NONE)
+                .profiles("test")
+                .run();
+        userRepository = context.getBean(UserRepository.class);
+        transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+
+        List<Object[]> rows = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            rows.add(new Object[]{"login" + i, "Passw0rd" + i, "name " + i});
+        }
+        context.getBean(JdbcTemplate.class)
+                .batchUpdate("insert into db_user (id, login, password, name, version) values (nextval('db_user_seq'), ?, ?, ?, 0)", rows);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<UserWithoutRolesDto> entities() {
+        return transactionTemplate.execute(status -> userRepository.findAll().stream()
+                .map(UserWithoutRolesDto::new)
+                .collect(Collectors.toList()));
+    }
+
+    @Benchmark
+    public List<UserWithoutRolesDto> projection() {
+        return transactionTemplate.execute(status -> userRepository.findPageAfter(0L, Pageable.unpaged()));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(UserListBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,106 @@
+package ru.drsdgdbye.basic_authentication.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.drsdgdbye.basic_authentication.domain.Role;
+import ru.drsdgdbye.basic_authentication.domain.User;
+import ru.drsdgdbye.basic_authentication.repository.UserRoleRow;
+import ru.drsdgdbye.basic_authentication.service.dto.UserDto;
+import ru.drsdgdbye.basic_authentication.service.dto.UserWithoutRolesDto;
+import ru.drsdgdbye.basic_authentication.utils.LoginUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping between {@link User} entities, join rows and the DTOs in both directions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserMappingBenchmark {
+
+    private User user;
+    private UserDto userDto;
+    private List<UserRoleRow> rows;
+
+    @Setup
+    public void setUp() {
+        user = BenchmarkData.user(1);
+        userDto = BenchmarkData.userDto(1);
+        rows = new ArrayList<>();
+        for (Role role : user.getRoles()) {
+            rows.add(new Row(user, role.getId()));
+        }
+    }
+
+    @Benchmark
+    public UserDto entityToUserDto() {
+        return new UserDto(user);
+    }
+
+    @Benchmark
+    public UserDto rowsToUserDto() {
+        return new UserDto(rows);
+    }
+
+    @Benchmark
+    public UserWithoutRolesDto entityToUserWithoutRolesDto() {
+        return new UserWithoutRolesDto(user);
+    }
+
+    /**
+     * Same steps as {@code UserService#createUser}, with detached roles in place of {@code getOne} references.
+     */
+    @Benchmark
+    public User userDtoToEntity() {
+        User newUser = new User();
+        newUser.setLogin(LoginUtils.normalize(userDto.getLogin()));
+        newUser.setName(userDto.getName());
+        newUser.setPassword(userDto.getPassword());
+        for (Long roleId : userDto.getRoles()) {
+            Role role = new Role();
+            role.setId(roleId);
+            newUser.addRole(role);
+        }
+        return newUser;
+    }
+
+    private static class Row implements UserRoleRow {
+        private final User user;
+        private final Long roleId;
+
+        Row(User user, Long roleId) {
+            this.user = user;
+            this.roleId = roleId;
+        }
+
+        @Override
+        public Long getId() {
+            return user.getId();
+        }
+
+        @Override
+        public String getLogin() {
+            return user.getLogin();
+        }
+
+        @Override
+        public String getName() {
+            return user.getName();
+        }
+
+        @Override
+        public Long getVersion() {
+            return user.getVersion();
+        }
+
+        @Override
+        public Long getRoleId() {
+            return roleId;
+        }
+    }
+}
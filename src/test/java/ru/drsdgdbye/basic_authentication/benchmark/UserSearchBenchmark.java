@@ -0,0 +1,110 @@
+package ru.drsdgdbye.basic_authentication.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+import ru.drsdgdbye.basic_authentication.BasicAuthenticationApplication;
+import ru.drsdgdbye.basic_authentication.service.SearchMode;
+import ru.drsdgdbye.basic_authentication.service.UserService;
+import ru.drsdgdbye.basic_authentication.service.dto.UserListDto;
+import ru.drsdgdbye.basic_authentication.utils.Constants;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency distribution of {@link UserService#searchUsers(String, SearchMode, Long, int)} for a random existing user.
+ * <p>
+ * The in-memory database of the test profile has none of the search indexes, the numbers that matter come from
+ * postgresql, selected through the environment of the forked jvm:
+ * {@code SPRING_DATASOURCE_URL=jdbc:postgresql://localhost:5432/postgres SPRING_DATASOURCE_USERNAME=postgres
+ * SPRING_DATASOURCE_PASSWORD=postgres mvn -Pbenchmark verify -Djmh.include=UserSearchBenchmark -Djmh.args="-p users=5000000"}.
+ * The indexes of {@code db/search-indexes.sql} are created there after seeding.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class UserSearchBenchmark {
+    private static final int SEED_BATCH_SIZE = 10_000;
+    private static final String[] FIRST_NAMES = {"anna", "john", "maria", "ivan", "olga", "peter", "elena", "sergey"};
+    private static final String[] LAST_NAMES = {"smith", "ivanov", "petrova", "anderson", "sokolov", "hall", "stone"};
+
+    @Param({"100000"})
+    private int users;
+
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+
+    @Setup
+    public void setUp() throws MetaDataAccessException {
+        context = new SpringApplicationBuilder(BasicAuthenticationApplication.class)
+                .web(WebApplicationType.NONE)
+                .profiles("test")
+                .run();
+        userService = context.getBean(UserService.class);
+
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        for (int from = 0; from < users; from += SEED_BATCH_SIZE) {
+            List<Object[]> rows = new ArrayList<>(SEED_BATCH_SIZE);
+            for (int i = from; i < Math.min(users, from + SEED_BATCH_SIZE); i++) {
+                rows.add(new Object[]{login(i), "Passw0rd" + i, name(i)});
+            }
+            jdbcTemplate.batchUpdate("insert into db_user (id, login, password, name, version) " +
+                    "values (nextval('db_user_seq'), ?, ?, ?, 0)", rows);
+        }
+
+        DataSource dataSource = context.getBean(DataSource.class);
+        String database = JdbcUtils.extractDatabaseMetaData(dataSource, "getDatabaseProductName");
+        if ("PostgreSQL".equals(database)) {
+            new ResourceDatabasePopulator(new ClassPathResource("db/search-indexes.sql")).execute(dataSource);
+            jdbcTemplate.execute("analyze db_user");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public UserListDto prefix() {
+        return userService.searchUsers(login(ThreadLocalRandom.current().nextInt(users)), SearchMode.PREFIX,
+                0L, Constants.DEFAULT_PAGE_SIZE);
+    }
+
+    @Benchmark
+    public UserListDto contains() {
+        String name = name(ThreadLocalRandom.current().nextInt(users));
+        return userService.searchUsers(name.substring(name.indexOf(' ') - 2), SearchMode.CONTAINS,
+                0L, Constants.DEFAULT_PAGE_SIZE);
+    }
+
+    private static String login(int i) {
+        return FIRST_NAMES[i % FIRST_NAMES.length] + "." + LAST_NAMES[i % LAST_NAMES.length] + i;
+    }
+
+    private static String name(int i) {
+        return FIRST_NAMES[i % FIRST_NAMES.length] + " " + LAST_NAMES[(i / FIRST_NAMES.length) % LAST_NAMES.length] + " " + i;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(UserSearchBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,63 @@
+package ru.drsdgdbye.basic_authentication.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.drsdgdbye.basic_authentication.service.dto.UserDto;
+import ru.drsdgdbye.basic_authentication.utils.Constants;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import javax.validation.ValidatorFactory;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Bean validation of {@link UserDto} as done for every {@code /add} and {@code /edit} body,
+ * and the {@link Constants#PASSWORD_REGEX} match on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserValidationBenchmark {
+
+    private ValidatorFactory validatorFactory;
+    private Validator validator;
+    private Pattern passwordPattern;
+    private UserDto validUser;
+    private UserDto invalidUser;
+
+    @Setup
+    public void setUp() {
+        validatorFactory = Validation.buildDefaultValidatorFactory();
+        validator = validatorFactory.getValidator();
+        passwordPattern = Pattern.compile(Constants.PASSWORD_REGEX);
+        validUser = BenchmarkData.userDto(1);
+        invalidUser = BenchmarkData.userDto(2);
+        invalidUser.setPassword("weak password without digits or capitals");
+        invalidUser.setName("");
+    }
+
+    @TearDown
+    public void tearDown() {
+        validatorFactory.close();
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<UserDto>> validUser() {
+        return validator.validate(validUser);
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<UserDto>> invalidUser() {
+        return validator.validate(invalidUser);
+    }
+
+    @Benchmark
+    public boolean passwordRegex() {
+        return passwordPattern.matcher(validUser.getPassword()).matches();
+    }
+}
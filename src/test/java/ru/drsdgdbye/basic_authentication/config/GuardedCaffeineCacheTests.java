@@ -0,0 +1,48 @@
+package ru.drsdgdbye.basic_authentication.config;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GuardedCaffeineCacheTests {
+
+    private final GuardedCaffeineCache cache = new GuardedCaffeineCache("users", Caffeine.newBuilder().build(), true);
+
+    @Test
+    void testPutAfterMissIsKept() {
+        assertThat(cache.get(1L)).isNull();
+        cache.put(1L, "user");
+
+        assertThat(cache.get(1L)).isNotNull();
+    }
+
+    @Test
+    void testPutAfterConcurrentEvictIsDropped() {
+        assertThat(cache.get(1L)).isNull();
+        // a write commits and evicts while the method of the miss runs
+        cache.evict(1L);
+        cache.put(1L, "stale user");
+
+        assertThat(cache.get(1L)).isNull();
+        cache.put(1L, "user");
+        assertThat(cache.get(1L)).isNotNull();
+    }
+
+    @Test
+    void testPutAfterConcurrentClearIsDropped() {
+        assertThat(cache.get(1L)).isNull();
+        cache.clear();
+        cache.put(1L, "stale user");
+
+        assertThat(cache.get(1L)).isNull();
+    }
+
+    @Test
+    void testPutWithoutMissIsKept() {
+        cache.evict(1L);
+        cache.put(1L, "user");
+
+        assertThat(cache.get(1L)).isNotNull();
+    }
+}
@@ -0,0 +1,93 @@
+package ru.drsdgdbye.basic_authentication.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.drsdgdbye.basic_authentication.BasicAuthenticationApplication;
+import ru.drsdgdbye.basic_authentication.repository.UserRepository;
+import ru.drsdgdbye.basic_authentication.service.UserService;
+import ru.drsdgdbye.basic_authentication.service.dto.UserDto;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Two embedded databases stand in for the primary and the replica.
+ */
+@ActiveProfiles("test")
+@SpringBootTest(classes = BasicAuthenticationApplication.class, properties = {
+        "spring.datasource.url=jdbc:h2:mem:primary;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "app.datasource.replica.jdbc-url=jdbc:h2:mem:replica;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "app.datasource.replica.username=sa"
+})
+class ReadWriteRoutingTests {
+
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private ConfigurableListableBeanFactory beanFactory;
+    @Autowired
+    private UserService userService;
+    @Autowired
+    private UserRepository userRepository;
+
+    @Test
+    void testReadOnlyTransactionsUseReplica() {
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+
+        String url = readOnly.execute(status -> connectionUrl());
+        assertThat(url).contains("replica");
+    }
+
+    @Test
+    void testReadWriteTransactionsUsePrimary() {
+        TransactionTemplate readWrite = new TransactionTemplate(transactionManager);
+
+        String url = readWrite.execute(status -> connectionUrl());
+        assertThat(url).contains("primary");
+    }
+
+    /**
+     * the pools are closed after the beans that use them, the schema drop of the entity manager factory included
+     **/
+    @Test
+    void testPoolsAreDependenciesOfDataSource() {
+        assertThat(beanFactory.getDependentBeans("primaryDataSource")).contains("dataSource");
+        assertThat(beanFactory.getDependentBeans("replicaDataSource")).contains("dataSource");
+    }
+
+    /**
+     * the replica has no schema here, a read of the users that went to it would fail
+     **/
+    @Test
+    void testCachedAndExistenceReadsUsePrimary() {
+        UserDto userDto = new UserDto();
+        userDto.setLogin("routedoe");
+        userDto.setName("routed doe");
+        userDto.setPassword("Passr0uted");
+        userService.createUser(userDto);
+        Long id = userRepository.findOneByLogin("routedoe").orElseThrow().getId();
+
+        assertThat(userService.isUserExists(userDto)).isTrue();
+        assertThat(userService.getUser(id).getLogin()).isEqualTo("routedoe");
+        userService.deleteUser(id);
+    }
+
+    private String connectionUrl() {
+        try {
+            return DataSourceUtils.getConnection(dataSource).getMetaData().getURL();
+        } catch (SQLException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
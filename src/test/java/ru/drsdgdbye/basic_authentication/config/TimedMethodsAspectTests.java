@@ -0,0 +1,51 @@
+package ru.drsdgdbye.basic_authentication.config;
+
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TimedMethodsAspectTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Service service = proxy(new Service());
+
+    @Test
+    void testCallsOfMethodShareOneTimer() {
+        service.work();
+        service.work();
+
+        assertThat(meterRegistry.get("service.timer").tag("class", Service.class.getName()).tag("method", "work")
+                .tag("exception", "none").timer().count()).isEqualTo(2);
+        assertThat(meterRegistry.getMeters()).hasSize(1);
+    }
+
+    @Test
+    void testFailedCallIsTaggedWithException() {
+        assertThatThrownBy(service::fail).isInstanceOf(IllegalStateException.class);
+
+        assertThat(meterRegistry.get("service.timer").tag("method", "fail")
+                .tag("exception", "IllegalStateException").timer().count()).isEqualTo(1);
+    }
+
+    private Service proxy(Service target) {
+        AspectJProxyFactory factory = new AspectJProxyFactory(target);
+        factory.setProxyTargetClass(true);
+        factory.addAspect(new TimedMethodsAspect(meterRegistry));
+        return factory.getProxy();
+    }
+
+    static class Service {
+        @Timed("service.timer")
+        public void work() {
+        }
+
+        @Timed("service.timer")
+        public void fail() {
+            throw new IllegalStateException();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package ru.drsdgdbye.basic_authentication.rest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import ru.drsdgdbye.basic_authentication.BasicAuthenticationApplication;
+import ru.drsdgdbye.basic_authentication.repository.UserRepository;
+import ru.drsdgdbye.basic_authentication.service.dto.UserDto;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+@ActiveProfiles("test")
+@AutoConfigureMockMvc
+@SpringBootTest(classes = BasicAuthenticationApplication.class)
+class UserResourceConcurrencyTests {
+
+    private static final String LOGIN = "racer";
+    private static final int THREADS = 16;
+
+    @Autowired
+    ObjectMapper objectMapper;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private MockMvc restUserMockMvc;
+
+    @AfterEach
+    public void cleanUp() {
+        userRepository.findOneByLogin(LOGIN).ifPresent(userRepository::delete);
+    }
+
+    @Test
+    void testConcurrentAddOfSameLogin() throws Exception {
+        UserDto user = new UserDto();
+        user.setLogin(LOGIN);
+        user.setName("racer");
+        user.setPassword("Passrac3r");
+        user.setRoles(new HashSet<>());
+        String body = json(user);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> statuses = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            statuses.add(executor.submit(() -> {
+                start.await();
+                return restUserMockMvc.perform(post("/add")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body))
+                        .andReturn().getResponse().getStatus();
+            }));
+        }
+        start.countDown();
+
+        List<Integer> results = new ArrayList<>();
+        for (Future<Integer> status : statuses) {
+            results.add(status.get(30, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+
+        assertThat(results).filteredOn(status -> status == HttpStatus.CREATED.value()).hasSize(1);
+        assertThat(results).filteredOn(status -> status == HttpStatus.CONFLICT.value()).hasSize(THREADS - 1);
+        assertThat(userRepository.findOneByLogin(LOGIN)).isPresent();
+    }
+
+    private String json(UserDto userDto) {
+        ObjectNode json = objectMapper.valueToTree(userDto);
+        json.put("password", userDto.getPassword());
+        return json.toString();
+    }
+}
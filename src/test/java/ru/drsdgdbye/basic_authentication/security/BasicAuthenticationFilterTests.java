@@ -0,0 +1,182 @@
+package ru.drsdgdbye.basic_authentication.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.drsdgdbye.basic_authentication.BasicAuthenticationApplication;
+import ru.drsdgdbye.basic_authentication.domain.Role;
+import ru.drsdgdbye.basic_authentication.domain.User;
+import ru.drsdgdbye.basic_authentication.repository.RoleRepository;
+import ru.drsdgdbye.basic_authentication.repository.UserRepository;
+import ru.drsdgdbye.basic_authentication.service.dto.UserDto;
+
+import javax.persistence.EntityManagerFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ActiveProfiles("test")
+@AutoConfigureMockMvc
+@SpringBootTest(classes = BasicAuthenticationApplication.class, properties = {
+        "spring.datasource.url=jdbc:h2:mem:security;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "app.security.enabled=true",
+        "app.security.write-role=ADMIN"
+})
+class BasicAuthenticationFilterTests {
+
+    private static final String ADMIN_LOGIN = "admin";
+    private static final String ADMIN_PASSWORD = "Passadm1n";
+    private static final String READER_LOGIN = "reader";
+    private static final String READER_PASSWORD = "Passread3r";
+    private static final String UPDATED_PASSWORD = "Passupdat3d";
+
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private RoleRepository roleRepository;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private CredentialsCache credentialsCache;
+    @Autowired
+    private PasswordHasher passwordHasher;
+    @Autowired
+    private MockMvc restUserMockMvc;
+    private User reader;
+
+    @BeforeEach
+    public void initTest() {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            Role admin = new Role();
+            admin.setName("ADMIN");
+            createUser(ADMIN_LOGIN, ADMIN_PASSWORD, Set.of(roleRepository.save(admin)));
+            reader = createUser(READER_LOGIN, READER_PASSWORD, Set.of());
+        });
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        userRepository.findAll().forEach(user -> credentialsCache.invalidate(user.getId()));
+        userRepository.deleteAll();
+        roleRepository.deleteAll();
+    }
+
+    private User createUser(String login, String password, Set<Role> roles) {
+        User user = new User();
+        user.setLogin(login);
+        user.setName(login);
+        user.setPassword(password);
+        user.setRoles(new HashSet<>(roles));
+        return userRepository.save(user);
+    }
+
+    private String json(UserDto userDto) {
+        ObjectNode json = objectMapper.valueToTree(userDto);
+        json.put("password", userDto.getPassword());
+        return json.toString();
+    }
+
+    private static String basic(String login, String password) {
+        return "Basic " + Base64.getEncoder().encodeToString((login + ":" + password).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testRequestWithoutCredentialsIsRejected() throws Exception {
+        restUserMockMvc.perform(get("/list"))
+                .andExpect(status().isUnauthorized())
+                .andExpect(header().exists(HttpHeaders.WWW_AUTHENTICATE));
+
+        restUserMockMvc.perform(get("/list").header(HttpHeaders.AUTHORIZATION, basic(READER_LOGIN, ADMIN_PASSWORD)))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void testWritesNeedWriteRole() throws Exception {
+        restUserMockMvc.perform(get("/get/{id}", reader.getId()).header(HttpHeaders.AUTHORIZATION, basic(READER_LOGIN, READER_PASSWORD)))
+                .andExpect(status().isOk());
+
+        restUserMockMvc.perform(delete("/delete/{id}", reader.getId()).header(HttpHeaders.AUTHORIZATION, basic(READER_LOGIN, READER_PASSWORD)))
+                .andExpect(status().isForbidden());
+
+        restUserMockMvc.perform(delete("/delete/{id}", reader.getId()).header(HttpHeaders.AUTHORIZATION, basic(ADMIN_LOGIN, ADMIN_PASSWORD)))
+                .andExpect(status().isNoContent());
+
+        restUserMockMvc.perform(get("/list").header(HttpHeaders.AUTHORIZATION, basic(READER_LOGIN, READER_PASSWORD)))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void testVerifiedCredentialsAreCached() throws Exception {
+        restUserMockMvc.perform(get("/get/{id}", reader.getId()).header(HttpHeaders.AUTHORIZATION, basic(READER_LOGIN, READER_PASSWORD)))
+                .andExpect(status().isOk());
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        double cachedBefore = meterRegistry.get("users.auth").tag("result", "cached").counter().count();
+
+        restUserMockMvc.perform(get("/get/{id}", reader.getId()).header(HttpHeaders.AUTHORIZATION, basic(READER_LOGIN, READER_PASSWORD)))
+                .andExpect(status().isOk());
+
+        assertThat(statistics.getPrepareStatementCount()).isZero();
+        assertThat(meterRegistry.get("users.auth").tag("result", "cached").counter().count()).isEqualTo(cachedBefore + 1);
+    }
+
+    @Test
+    void testPasswordChangeInvalidatesCachedCredentials() throws Exception {
+        restUserMockMvc.perform(get("/list").header(HttpHeaders.AUTHORIZATION, basic(READER_LOGIN, READER_PASSWORD)))
+                .andExpect(status().isOk());
+
+        UserDto userDto = new UserDto();
+        userDto.setId(reader.getId());
+        userDto.setLogin(READER_LOGIN);
+        userDto.setName(READER_LOGIN);
+        userDto.setPassword(UPDATED_PASSWORD);
+        userDto.setRoles(new HashSet<>());
+        restUserMockMvc.perform(put("/edit")
+                .header(HttpHeaders.AUTHORIZATION, basic(ADMIN_LOGIN, ADMIN_PASSWORD))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(json(userDto)))
+                .andExpect(status().isOk());
+
+        restUserMockMvc.perform(get("/list").header(HttpHeaders.AUTHORIZATION, basic(READER_LOGIN, READER_PASSWORD)))
+                .andExpect(status().isUnauthorized());
+        restUserMockMvc.perform(get("/list").header(HttpHeaders.AUTHORIZATION, basic(READER_LOGIN, UPDATED_PASSWORD)))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void testPlainTextPasswordIsRehashedOnLogin() throws Exception {
+        restUserMockMvc.perform(get("/list").header(HttpHeaders.AUTHORIZATION, basic(READER_LOGIN, READER_PASSWORD)))
+                .andExpect(status().isOk());
+
+        String storedPassword = userRepository.findById(reader.getId()).orElseThrow().getPassword();
+        assertThat(storedPassword).isNotEqualTo(READER_PASSWORD);
+        assertThat(passwordHasher.needsRehash(storedPassword)).isFalse();
+        assertThat(passwordHasher.matches(READER_PASSWORD, storedPassword)).isTrue();
+    }
+}
@@ -0,0 +1,84 @@
+package ru.drsdgdbye.basic_authentication.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import ru.drsdgdbye.basic_authentication.BasicAuthenticationApplication;
+import ru.drsdgdbye.basic_authentication.domain.User;
+import ru.drsdgdbye.basic_authentication.repository.UserRepository;
+import ru.drsdgdbye.basic_authentication.service.dto.UserDto;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ActiveProfiles("test")
+@SpringBootTest(classes = BasicAuthenticationApplication.class, properties = {
+        "spring.datasource.url=jdbc:h2:mem:loginfilter;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "app.login-filter.enabled=true"
+})
+class LoginFilterTests {
+
+    private static final String PASSWORD = "Passjohnd0e";
+
+    @Autowired
+    private UserService userService;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private LoginFilter loginFilter;
+
+    @BeforeEach
+    public void awaitWarmUp() throws InterruptedException {
+        awaitTrue(loginFilter::isReady);
+    }
+
+    @Test
+    void testCreatedLoginIsFound() {
+        userService.createUser(userDto("FilterDoe"));
+
+        assertThat(userService.isUserExists(userDto("filterdoe"))).isTrue();
+        assertThat(userService.isUserExists(userDto("nobodydoe"))).isFalse();
+    }
+
+    /**
+     * the filter is for a single writer, rows it did not write are only seen after a rebuild
+     **/
+    @Test
+    void testRowOfOtherWriterIsFoundAfterRebuild() throws InterruptedException {
+        User other = new User();
+        other.setLogin("otherdoe");
+        other.setName("other doe");
+        other.setPassword(PASSWORD);
+        other.setRoles(new HashSet<>());
+        userRepository.saveAndFlush(other);
+        assertThat(userService.isUserExists(userDto("otherdoe"))).isFalse();
+
+        userService.createUser(userDto("deleteddoe"));
+        userService.createUser(userDto("removeddoe"));
+        List<User> created = List.of(userRepository.findOneByLogin("deleteddoe").orElseThrow(),
+                userRepository.findOneByLogin("removeddoe").orElseThrow());
+        userService.deleteUsers(List.of(created.get(0).getId(), created.get(1).getId()));
+
+        awaitTrue(() -> userService.isUserExists(userDto("otherdoe")));
+    }
+
+    private static UserDto userDto(String login) {
+        UserDto userDto = new UserDto();
+        userDto.setLogin(login);
+        userDto.setName("john doe");
+        userDto.setPassword(PASSWORD);
+        return userDto;
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 500 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+}
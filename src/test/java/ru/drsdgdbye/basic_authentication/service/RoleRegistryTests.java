@@ -0,0 +1,52 @@
+package ru.drsdgdbye.basic_authentication.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import ru.drsdgdbye.basic_authentication.BasicAuthenticationApplication;
+import ru.drsdgdbye.basic_authentication.domain.Role;
+import ru.drsdgdbye.basic_authentication.repository.RoleRepository;
+
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ActiveProfiles("test")
+@SpringBootTest(classes = BasicAuthenticationApplication.class, properties = {
+        "spring.datasource.url=jdbc:h2:mem:roleregistry;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "app.roles.refresh-interval=50ms"
+})
+class RoleRegistryTests {
+
+    @Autowired
+    private RoleRegistry roleRegistry;
+    @Autowired
+    private RoleRepository roleRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * no listener sees a role deleted in the database, only the reload drops it
+     **/
+    @Test
+    void testRoleDeletedInDatabaseIsDroppedByReload() throws InterruptedException {
+        Role role = new Role();
+        role.setName("EXTERNAL");
+        Long id = roleRepository.saveAndFlush(role).getId();
+        assertThat(roleRegistry.findMissing(List.of(id))).isEmpty();
+
+        jdbcTemplate.update("delete from role where id = ?", id);
+
+        awaitTrue(() -> roleRegistry.findMissing(List.of(id)).contains(id));
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 500 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+}
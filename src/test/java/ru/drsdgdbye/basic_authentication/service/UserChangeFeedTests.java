@@ -0,0 +1,186 @@
+package ru.drsdgdbye.basic_authentication.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.drsdgdbye.basic_authentication.security.exceptions.TooManyRequestsException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UserChangeFeedTests {
+
+    private static final int CAPACITY = 8;
+    private static final int SUBSCRIBER_BUFFER = 4;
+    private static final int MAX_SUBSCRIBERS = 2;
+    private static final Duration SEND_TIMEOUT = Duration.ofSeconds(30);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final UserChangeFeed feed = new UserChangeFeed(meterRegistry, CAPACITY, SUBSCRIBER_BUFFER, MAX_SUBSCRIBERS, 2, SEND_TIMEOUT);
+
+    @AfterEach
+    public void shutdown() {
+        feed.shutdown();
+    }
+
+    @Test
+    void testSubscriberResumesAfterSequence() throws Exception {
+        publish(1, 2, 3);
+        RecordingEmitter emitter = new RecordingEmitter();
+        feed.subscribe(emitter, feed.eventId(1));
+        publish(4);
+
+        emitter.await(3);
+        assertThat(emitter.events).containsExactly(event("UPDATED", 2), event("UPDATED", 3), event("UPDATED", 4));
+    }
+
+    @Test
+    void testSubscriberBehindTheRingIsReset() throws Exception {
+        publish(LongStream.rangeClosed(1, CAPACITY + 2).toArray());
+        RecordingEmitter emitter = new RecordingEmitter();
+        feed.subscribe(emitter, feed.eventId(1));
+        publish(100);
+
+        emitter.await(2);
+        assertThat(emitter.events).containsExactly(event(UserChangeFeed.RESET_EVENT, CAPACITY + 2), event("UPDATED", CAPACITY + 3));
+    }
+
+    /**
+     * the sequence of an earlier run is retained in this one, only the epoch tells them apart
+     **/
+    @Test
+    void testSubscriberOfEarlierRunIsReset() throws Exception {
+        publish(1, 2, 3);
+        RecordingEmitter emitter = new RecordingEmitter();
+        feed.subscribe(emitter, "0:1");
+        publish(4);
+
+        emitter.await(2);
+        assertThat(emitter.events).containsExactly(event(UserChangeFeed.RESET_EVENT, 3), event("UPDATED", 4));
+    }
+
+    /**
+     * the slow send holds the monitor of its emitter like a blocked write does, publishing must not wait for it
+     **/
+    @Test
+    void testSlowSubscriberIsEvicted() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        RecordingEmitter slow = new BlockingEmitter(blocked, Duration.ofSeconds(5));
+        feed.subscribe(slow, null);
+        RecordingEmitter fast = new RecordingEmitter();
+        feed.subscribe(fast, null);
+
+        for (int i = 1; i <= SUBSCRIBER_BUFFER + 1; i++) {
+            publish(i);
+            fast.await(i);
+        }
+
+        assertThat(meterRegistry.get("users.changes.evicted").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("users.changes.subscribers").gauge().value()).isEqualTo(1);
+        assertThat(slow.completed.getCount()).isEqualTo(1);
+        blocked.countDown();
+        assertThat(slow.completed.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(fast.completed.getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void testStuckSendIsInterrupted() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        UserChangeFeed timingOut = new UserChangeFeed(registry, CAPACITY, SUBSCRIBER_BUFFER, MAX_SUBSCRIBERS, 2, Duration.ofMillis(200));
+        try {
+            RecordingEmitter stuck = new BlockingEmitter(new CountDownLatch(1), Duration.ofMinutes(1));
+            timingOut.subscribe(stuck, null);
+
+            timingOut.publishIdsAfterCommit(UserChangeKind.UPDATED, List.of(1L));
+
+            assertThat(stuck.completed.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(registry.get("users.changes.evicted").counter().count()).isEqualTo(1);
+            assertThat(registry.get("users.changes.subscribers").gauge().value()).isEqualTo(0);
+        } finally {
+            timingOut.shutdown();
+        }
+    }
+
+    @Test
+    void testTooManySubscribersAreRejected() {
+        feed.subscribe(new RecordingEmitter(), null);
+        feed.subscribe(new RecordingEmitter(), null);
+
+        assertThatThrownBy(() -> feed.subscribe(new RecordingEmitter(), null))
+                .isInstanceOf(TooManyRequestsException.class);
+    }
+
+    private String event(String name, long sequence) {
+        return name + " " + feed.eventId(sequence);
+    }
+
+    private void publish(long... ids) {
+        feed.publishIdsAfterCommit(UserChangeKind.UPDATED, LongStream.of(ids).boxed().collect(Collectors.toList()));
+    }
+
+    /**
+     * records the name and id of the events instead of writing them
+     **/
+    private static class RecordingEmitter extends SseEmitter {
+        private final List<String> events = new CopyOnWriteArrayList<>();
+        private final CountDownLatch completed = new CountDownLatch(1);
+
+        @Override
+        public synchronized void complete() {
+            completed.countDown();
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            String event = builder.build().stream()
+                    .map(data -> data.getData().toString())
+                    .collect(Collectors.joining());
+            events.add(field(event, "event:") + " " + field(event, "id:"));
+        }
+
+        private void await(int count) throws InterruptedException {
+            for (int i = 0; i < 500 && events.size() < count; i++) {
+                Thread.sleep(10);
+            }
+            assertThat(events).hasSize(count);
+        }
+
+        private static String field(String event, String name) {
+            int start = event.indexOf(name) + name.length();
+            return event.substring(start, event.indexOf('\n', start));
+        }
+    }
+
+    /**
+     * blocks every send until released, holding the monitor of the emitter, an interrupt fails the send
+     **/
+    private static class BlockingEmitter extends RecordingEmitter {
+        private final CountDownLatch release;
+        private final Duration timeout;
+
+        private BlockingEmitter(CountDownLatch release, Duration timeout) {
+            this.release = release;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public synchronized void send(SseEventBuilder builder) throws IOException {
+            try {
+                release.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                throw new IOException("send interrupted");
+            }
+            super.send(builder);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package ru.drsdgdbye.basic_authentication.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BloomFilterTests {
+
+    private static final int INSERTIONS = 100_000;
+    private static final double FPP = 0.01;
+
+    @Test
+    void testNoFalseNegativesAndBoundedFalsePositives() {
+        BloomFilter filter = new BloomFilter(INSERTIONS, FPP);
+        for (int i = 0; i < INSERTIONS; i++) {
+            filter.put("login" + i);
+        }
+
+        for (int i = 0; i < INSERTIONS; i++) {
+            assertThat(filter.mightContain("login" + i)).isTrue();
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < INSERTIONS; i++) {
+            if (filter.mightContain("absent" + i)) {
+                falsePositives++;
+            }
+        }
+        assertThat((double) falsePositives / INSERTIONS).isLessThan(FPP * 2);
+        assertThat(filter.expectedFpp()).isLessThan(FPP * 2);
+    }
+}
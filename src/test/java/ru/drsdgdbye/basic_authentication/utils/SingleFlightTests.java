@@ -0,0 +1,150 @@
+package ru.drsdgdbye.basic_authentication.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.drsdgdbye.basic_authentication.security.exceptions.LookupFailedException;
+import ru.drsdgdbye.basic_authentication.security.exceptions.LookupTimeoutException;
+import ru.drsdgdbye.basic_authentication.security.exceptions.UserNotFoundException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTests {
+
+    private static final int CALLERS = 8;
+
+    private final Counter coalesced = new SimpleMeterRegistry().counter("coalesced");
+    private final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testConcurrentCallersShareOneLoad() throws Exception {
+        SingleFlight<Long, String> singleFlight = new SingleFlight<>(Duration.ofSeconds(5), coalesced);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> results = submit(singleFlight, () -> {
+            loads.incrementAndGet();
+            await(release);
+            return "user";
+        });
+        awaitCoalesced(CALLERS - 1);
+        release.countDown();
+
+        for (Future<String> result : results) {
+            assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("user");
+        }
+        assertThat(loads).hasValue(1);
+        assertThat(singleFlight.execute(1L, () -> "reloaded")).isEqualTo("reloaded");
+    }
+
+    @Test
+    void testEveryWaiterGetsItsOwnException() throws Exception {
+        SingleFlight<Long, String> singleFlight = new SingleFlight<>(Duration.ofSeconds(5), coalesced);
+        CountDownLatch release = new CountDownLatch(1);
+        UserNotFoundException failure = new UserNotFoundException();
+
+        List<Future<String>> results = submit(singleFlight, () -> {
+            await(release);
+            throw failure;
+        });
+        awaitCoalesced(CALLERS - 1);
+        release.countDown();
+
+        Set<Throwable> thrown = new HashSet<>();
+        for (Future<String> result : results) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+            } catch (ExecutionException ex) {
+                thrown.add(ex.getCause());
+            }
+        }
+        assertThat(thrown).hasSize(CALLERS)
+                .filteredOn(ex -> ex != failure)
+                .hasSize(CALLERS - 1)
+                .allSatisfy(ex -> assertThat(ex).isInstanceOf(LookupFailedException.class).hasCause(failure));
+    }
+
+    @Test
+    void testForgottenLoadIsNotJoined() throws Exception {
+        SingleFlight<Long, String> singleFlight = new SingleFlight<>(Duration.ofSeconds(5), coalesced);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch loading = new CountDownLatch(1);
+
+        Future<String> before = executor.submit(() -> singleFlight.execute(1L, () -> {
+            loading.countDown();
+            await(release);
+            return "before write";
+        }));
+        assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+        singleFlight.forget(1L);
+
+        assertThat(singleFlight.execute(1L, () -> "after write")).isEqualTo("after write");
+        release.countDown();
+        assertThat(before.get(5, TimeUnit.SECONDS)).isEqualTo("before write");
+        assertThat(coalesced.count()).isZero();
+    }
+
+    @Test
+    void testWaitingCallerTimesOut() throws Exception {
+        SingleFlight<Long, String> singleFlight = new SingleFlight<>(Duration.ofMillis(50), coalesced);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch loading = new CountDownLatch(1);
+
+        Future<String> leader = executor.submit(() -> singleFlight.execute(1L, () -> {
+            loading.countDown();
+            await(release);
+            return "user";
+        }));
+        assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThatThrownBy(() -> singleFlight.execute(1L, () -> "own load"))
+                .isInstanceOf(LookupTimeoutException.class);
+        assertThat(singleFlight.execute(2L, () -> "other key")).isEqualTo("other key");
+        release.countDown();
+        assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("user");
+    }
+
+    private List<Future<String>> submit(SingleFlight<Long, String> singleFlight, Supplier<String> loader) {
+        List<Future<String>> results = new ArrayList<>(CALLERS);
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(executor.submit(() -> singleFlight.execute(1L, loader)));
+        }
+        return results;
+    }
+
+    private void awaitCoalesced(int count) throws InterruptedException {
+        for (int i = 0; i < 500 && coalesced.count() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(coalesced.count()).isEqualTo(count);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}